@@ -0,0 +1,5 @@
+#! /bin/bash
+# Example: ./bench.sh ValidationBench 100000 10
+rm -rf bench/bin
+javac -cp "lib/postgresql-42.1.4.jar" src/*.java bench/*.java -d bench/bin/
+java -cp "lib/*:bench/bin/" "$@"
@@ -0,0 +1,161 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small benchmark harness.  Every benchmark is run for a number of warmup
+ * iterations, then for a number of measured iterations of a fixed number of
+ * operations each; the time per operation of every measured iteration is
+ * kept and summarized.  Each result is written as one JSON object per line
+ * to standard out, and appended to the file named by -Dbench.out when set,
+ * so runs can be compared by a script.  A readable line goes to standard
+ * error.
+ *
+ * -Dbench.warmup and -Dbench.iterations set the iteration counts (5 and 10
+ * by default).
+ *
+ */
+
+public class Bench {
+	/**
+	 * One benchmarked operation.  The value returned is folded into a sink so
+	 * the work can not be optimized away.
+	 */
+	public interface Op {
+		long run() throws Exception;
+	}
+
+	private final String _suite;
+	//standard out when the harness was made, benchmarks may redirect System.out
+	private final PrintStream _out = System.out;
+	private final int _warmup = Integer.getInteger("bench.warmup", 5);
+	private final int _iterations = Integer.getInteger("bench.iterations", 10);
+	private final PrintStream _file;
+	private long _sink = 0;
+
+	public Bench(String suite) throws IOException {
+		this._suite = suite;
+		String out = System.getProperty("bench.out");
+		this._file = out == null ? null : new PrintStream(new FileOutputStream(out, true), true, "UTF-8");
+	}
+
+	/**
+	 * @return parameters as alternating names and values, in order
+	 */
+	public static Map<String, Object> params(Object... nameValues) {
+		Map<String, Object> params = new LinkedHashMap<String, Object>();
+		for (int i = 0; i + 1 < nameValues.length; i += 2) {
+			params.put(String.valueOf(nameValues[i]), nameValues[i + 1]);
+		}
+		return params;
+	}
+
+	/**
+	 * Method to run and report one benchmark.
+	 *
+	 * @param name the benchmark name
+	 * @param params what the benchmark was run with, e.g. the scale
+	 * @param ops the operations per iteration
+	 * @param op the operation
+	 * @throws Exception when an operation failed
+	 */
+	public void measure(String name, Map<String, Object> params, int ops, Op op) throws Exception {
+		for (int i = 0; i < this._warmup; ++i) {
+			for (int j = 0; j < ops; ++j) {
+				this._sink += op.run();
+			}
+		}
+
+		double[] nanosPerOp = new double[this._iterations];
+		long allocated = 0;
+		for (int i = 0; i < this._iterations; ++i) {
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			for (int j = 0; j < ops; ++j) {
+				this._sink += op.run();
+			}
+			nanosPerOp[i] = (double) (System.nanoTime() - start) / ops;
+			allocated += allocatedBytes() - bytes;
+		}
+		Arrays.sort(nanosPerOp);
+		double sum = 0;
+		for (double n : nanosPerOp) {
+			sum += n;
+		}
+		double mean = sum / nanosPerOp.length;
+		double allocatedPerOp = allocatedBytes() < 0 ? -1 : (double) allocated / ((long) ops * this._iterations);
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\"suite\":").append(quote(this._suite));
+		json.append(",\"benchmark\":").append(quote(name));
+		json.append(",\"params\":{");
+		boolean first = true;
+		for (Map.Entry<String, Object> e : params.entrySet()) {
+			json.append(first ? "" : ",").append(quote(e.getKey())).append(':');
+			json.append(e.getValue() instanceof Number ? e.getValue().toString() : quote(String.valueOf(e.getValue())));
+			first = false;
+		}
+		json.append("},\"unit\":\"ns/op\"");
+		json.append(",\"iterations\":").append(this._iterations);
+		json.append(",\"opsPerIteration\":").append(ops);
+		json.append(String.format(",\"mean\":%.1f,\"min\":%.1f,\"p50\":%.1f,\"p99\":%.1f,\"max\":%.1f",
+			mean, nanosPerOp[0], percentile(nanosPerOp, 0.50), percentile(nanosPerOp, 0.99), nanosPerOp[nanosPerOp.length - 1]));
+		json.append(String.format(",\"allocBytesPerOp\":%.1f", allocatedPerOp));
+		json.append(",\"jdk\":").append(quote(System.getProperty("java.version")));
+		json.append(",\"timestamp\":").append(System.currentTimeMillis());
+		json.append('}');
+
+		this._out.println(json);
+		if (this._file != null) {
+			this._file.println(json);
+		}
+		System.err.printf("%-28s %-32s %14.1f ns/op (p50 %.1f, p99 %.1f) %10.1f B/op%n",
+			name, params, mean, percentile(nanosPerOp, 0.50), percentile(nanosPerOp, 0.99), allocatedPerOp);
+	}//end measure
+
+	public void close() {
+		if (this._file != null) {
+			this._file.close();
+		}
+		// keeps the sink alive
+		if (this._sink == 42) {
+			System.err.println();
+		}
+	}
+
+	private static double percentile(double[] sorted, double p) {
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+
+	private static String quote(String s) {
+		StringBuilder b = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				b.append('\\').append(c);
+			} else if (c < ' ') {
+				b.append(String.format("\\u%04x", (int) c));
+			} else {
+				b.append(c);
+			}
+		}
+		return b.append('"').toString();
+	}
+
+	/**
+	 * @return the bytes allocated so far by this thread, or -1 when the JVM
+	 *         does not tell
+	 */
+	static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
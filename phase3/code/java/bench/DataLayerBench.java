@@ -0,0 +1,199 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks of the data layer against a running Postgres: materializing
+ * query results with executeQueryAndReturnResult, ID() on the cached and on
+ * the cold path, and the SQL of reports 6 to 10 (plus report 9 as answered
+ * by the service count index).  Results are JSON lines, see Bench.
+ *
+ * Without --scales the database is measured as it is.  With --scales every
+ * scale n replaces the shop data by n copies of the csv files in the data
+ * directory (ids shifted and VINs renamed so the copies do not collide),
+ * loaded through BulkLoader, and runs every benchmark on it.  That empties
+ * the shop tables, so only use --scales on a scratch database.
+ *
+ * Usage: DataLayerBench dbname port user [--data ../data] [--scales 1,4,16]
+ *
+ */
+
+public class DataLayerBench {
+	//the columns of each data file that hold integer ids and VINs
+	private static final String[][] KEY_COLUMNS = {
+		{"customer.csv", "i"},
+		{"mechanic.csv", "i"},
+		{"car.csv", "v"},
+		{"owns.csv", "iiv"},
+		{"service_request.csv", "iiv"},
+		{"closed_request.csv", "iii"}
+	};
+	//added to every integer id of copy c, times c
+	private static final int COPY_OFFSET = 1000000;
+	private static final int MAX_SCALE = 99;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: DataLayerBench dbname port user [--data ../data] [--scales 1,4,16]");
+			return;
+		}
+		File dataDir = new File("../data");
+		List<Integer> scales = new ArrayList<Integer>();
+		for (int i = 3; i + 1 < args.length; i += 2) {
+			if (args[i].equals("--data")) {
+				dataDir = new File(args[i + 1]);
+			} else if (args[i].equals("--scales")) {
+				for (String s : args[i + 1].split(",")) {
+					int scale = Integer.parseInt(s.trim());
+					if (scale < 1 || scale > MAX_SCALE) {
+						throw new IllegalArgumentException("scales must be from 1 to " + MAX_SCALE);
+					}
+					scales.add(scale);
+				}
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		// every report run must reach the database
+		System.setProperty("mechanicshop.reportCache.size", "0");
+		MechanicShop esql = new MechanicShop(args[0], args[1], args[2], "");
+		Bench bench = new Bench("datalayer");
+		try {
+			if (scales.isEmpty()) {
+				run(bench, esql, "current");
+			}
+			for (int scale : scales) {
+				File dir = scaledData(dataDir, scale);
+				try {
+					esql.executeUpdate("TRUNCATE Closed_Request, Service_Request, Owns, Car, Mechanic, Customer CASCADE");
+					new BulkLoader(esql).load(dir);
+				} finally {
+					deleteDir(dir);
+				}
+				run(bench, esql, scale);
+			}
+		} finally {
+			bench.close();
+			esql.cleanup();
+		}
+	}//end main
+
+	/**
+	 * Method to run every data layer benchmark at the current scale.
+	 */
+	private static void run(Bench bench, final MechanicShop esql, Object scale) throws Exception {
+		esql.executeUpdate("ANALYZE");
+		final long requests = esql.executeQueryAndReturnTable("SELECT COUNT(*) FROM Service_Request").getLong(0, 0);
+
+		for (final int rows : new int[] { 1, 100, 10000 }) {
+			Map<String, Object> params = Bench.params("scale", scale, "rows", rows, "tableRows", requests);
+			bench.measure("materialize.result", params, rows >= 10000 ? 5 : 50, new Bench.Op() {
+				public long run() throws Exception {
+					return esql.executeQueryAndReturnResult("SELECT * FROM Service_Request ORDER BY rid LIMIT ?", rows).size();
+				}
+			});
+			bench.measure("materialize.table", params, rows >= 10000 ? 5 : 50, new Bench.Op() {
+				public long run() throws Exception {
+					return esql.executeQueryAndReturnTable("SELECT * FROM Service_Request ORDER BY rid LIMIT ?", rows).size();
+				}
+			});
+		}
+
+		Map<String, Object> idParams = Bench.params("scale", scale, "tableRows", requests,
+			"blockSize", Integer.getInteger("mechanicshop.idBlockSize", 50));
+		bench.measure("id.next", idParams, 1000, new Bench.Op() {
+			public long run() throws Exception {
+				return Integer.parseInt(esql.ID("Service_Request"));
+			}
+		});
+		// a fresh allocator reads MAX(rid) before its first block, which grows with the table
+		bench.measure("id.cold", idParams, 5, new Bench.Op() {
+			public long run() throws Exception {
+				return new IdAllocator(esql.getPool()).next("Service_Request");
+			}
+		});
+
+		for (int report = ShopOperations.FIRST_REPORT; report <= ShopOperations.LAST_REPORT; ++report) {
+			final String sql = ShopOperations.reportQuery(report);
+			final Object[] params = report == 9 ? new Object[] { 10 } : new Object[0];
+			bench.measure("report.sql", Bench.params("scale", scale, "report", report, "tableRows", requests), 3, new Bench.Op() {
+				public long run() throws Exception {
+					return esql.executeQueryAndReturnTable(sql, params).size();
+				}
+			});
+		}
+		esql.getServiceCounts().resync();
+		bench.measure("report.index", Bench.params("scale", scale, "report", 9, "k", 10, "tableRows", requests), 1000, new Bench.Op() {
+			public long run() throws Exception {
+				return esql.getServiceCounts().top(10).size();
+			}
+		});
+	}//end run
+
+	/**
+	 * Method to write scale copies of the data files into a new temporary
+	 * directory.  Copy c shifts every integer id by c * COPY_OFFSET and
+	 * replaces the first two characters of every VIN by c, so foreign keys
+	 * stay within their copy.
+	 *
+	 * @return the directory holding the scaled files
+	 * @throws java.io.IOException when a file could not be read or written
+	 */
+	static File scaledData(File dataDir, int scale) throws IOException {
+		File dir = File.createTempFile("shop-scale-" + scale + "-", "");
+		if (!dir.delete() || !dir.mkdir()) {
+			throw new IOException("Could not create " + dir);
+		}
+		for (String[] file : KEY_COLUMNS) {
+			String kinds = file[1];
+			BufferedWriter out = new BufferedWriter(new FileWriter(new File(dir, file[0])), 1 << 16);
+			try {
+				for (int c = 0; c < scale; ++c) {
+					BufferedReader in = new BufferedReader(new FileReader(new File(dataDir, file[0])), 1 << 16);
+					try {
+						String line;
+						while ((line = in.readLine()) != null) {
+							if (line.trim().isEmpty()) {
+								continue;
+							}
+							String[] f = line.split(",", kinds.length() + 1);
+							for (int i = 0; i < kinds.length() && i < f.length; ++i) {
+								if (c == 0) {
+									break;
+								} else if (kinds.charAt(i) == 'i') {
+									f[i] = Integer.toString(Integer.parseInt(f[i].trim()) + c * COPY_OFFSET);
+								} else {
+									f[i] = String.format("%02d", c) + f[i].trim().substring(2);
+								}
+							}
+							out.write(String.join(",", f));
+							out.write('\n');
+						}
+					} finally {
+						in.close();
+					}
+				}
+			} finally {
+				out.close();
+			}
+		}
+		return dir;
+	}//end scaledData
+
+	private static void deleteDir(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+}
@@ -0,0 +1,114 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Measures what validating input costs: every field of a customer, a
+ * mechanic and a car is checked against its Validator rule, the way a
+ * script or server request does before writing.  A fifth of the generated
+ * fields are invalid so the error paths are part of the mix.  Also measured
+ * are each rule on its own and the MechanicShop.validate* methods the menu
+ * calls, with their error messages printed to nowhere.
+ *
+ * Usage: ValidationBench [records]
+ *
+ */
+
+public class ValidationBench {
+	private static final String[] FIELDS = {
+		"fname", "lname", "phone", "street", "city", "state", "zip", "experience", "vin", "make", "model", "year", "bill"
+	};
+	private static final String[] GOOD = {
+		"Anna", "O'Neil", "(951)555-0123", "900 University Ave.", "Riverside", "CA", "92521", "12",
+		"1HGCM82633A00435", "Mercedes-Benz", "C 300", "2017", "250"
+	};
+	private static final String[] BAD = {
+		"Anna3", "", "951-555-0123", "900 University Ave #4", "", "ca", "9252", "100",
+		"1HGCM82633A0043", "Rolls/Royce", "C_300", "17", "2.5"
+	};
+	private static final Validator.Rule[] RULES = {
+		Validator.NAME, Validator.NAME, Validator.PHONE, Validator.STREET, Validator.CITY, Validator.STATE, Validator.ZIP,
+		Validator.YEARS, Validator.VIN, Validator.MAKE, Validator.MODEL, Validator.YEAR, Validator.BILL
+	};
+
+	public static void main(String[] args) throws Exception {
+		final int records = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+		Random random = new Random(42);
+		final String[][] data = new String[records][];
+		for (int r = 0; r < records; ++r) {
+			data[r] = new String[RULES.length];
+			for (int f = 0; f < RULES.length; ++f) {
+				// copies, so no two records share a string
+				data[r][f] = new String(random.nextInt(5) == 0 ? BAD[f] : GOOD[f]);
+			}
+		}
+
+		Bench bench = new Bench("validation");
+		bench.measure("validate.record", Bench.params("fields", RULES.length, "invalidShare", 0.2), records, new Bench.Op() {
+			int next = 0;
+
+			public long run() {
+				String[] record = data[next++ % records];
+				long errors = 0;
+				for (int f = 0; f < RULES.length; ++f) {
+					if (RULES[f].check(record[f]) != Validator.OK) {
+						++errors;
+					}
+				}
+				return errors;
+			}
+		});
+
+		for (int f = 0; f < RULES.length; ++f) {
+			if (f == 1) {
+				continue; // same rule as fname
+			}
+			final int field = f;
+			bench.measure("validate.rule", Bench.params("field", FIELDS[f], "invalidShare", 0.2), records, new Bench.Op() {
+				int next = 0;
+
+				public long run() {
+					return RULES[field].check(data[next++ % records][field]);
+				}
+			});
+		}
+
+		// the menu methods print their errors, which is not what is measured here
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+		try {
+			bench.measure("validate.menu", Bench.params("fields", RULES.length, "invalidShare", 0.2), records, new Bench.Op() {
+				int next = 0;
+
+				public long run() {
+					String[] r = data[next++ % records];
+					long ok = 0;
+					ok += MechanicShop.validateName(r[0]) ? 1 : 0;
+					ok += MechanicShop.validateName(r[1]) ? 1 : 0;
+					ok += MechanicShop.validatePhone(r[2]) ? 1 : 0;
+					ok += MechanicShop.validateAddress(r[3], 1) ? 1 : 0;
+					ok += MechanicShop.validateAddress(r[4], 2) ? 1 : 0;
+					ok += MechanicShop.validateAddress(r[5], 3) ? 1 : 0;
+					ok += MechanicShop.validateAddress(r[6], 4) ? 1 : 0;
+					ok += MechanicShop.validateYears(r[7]) ? 1 : 0;
+					ok += MechanicShop.validateCar(r[8], 1) ? 1 : 0;
+					ok += MechanicShop.validateCar(r[9], 2) ? 1 : 0;
+					ok += MechanicShop.validateCar(r[10], 3) ? 1 : 0;
+					ok += MechanicShop.validateCar(r[11], 4) ? 1 : 0;
+					ok += MechanicShop.validateBill(r[12]) ? 1 : 0;
+					return ok;
+				}
+			});
+		} finally {
+			System.setOut(stdout);
+		}
+		bench.close();
+	}
+}
@@ -0,0 +1,351 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Checks that the Validator rules accept and reject exactly what the field
+ * checks they replaced did, by running both on random input: mixes of
+ * letters, digits, punctuation, blanks and non-ASCII characters, digit runs
+ * and phone-like strings.  The old checks are kept below as they were,
+ * except that an empty years of experience, which used to throw, counts as
+ * rejected.  Prints the first differences and exits with 1 if there are any.
+ *
+ * Usage: ValidatorEquivalence [inputs]
+ *
+ */
+
+public class ValidatorEquivalence {
+	private static final String CHARS = "aZ09 -'.&()#_/\u00e9\u00c9\u0663\t";
+	private static final String[] CHECKS = {
+		"street", "city", "state", "zip", "vin", "make", "model", "year", "name", "phone", "experience", "bill", "car year"
+	};
+
+	public static void main(String[] args) {
+		int inputs = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		PrintStream stdout = System.out;
+		// both sides print their errors, which is not what is compared
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+		}));
+
+		Random random = new Random(1);
+		int differences = 0;
+		try {
+			for (int i = 0; i < inputs; ++i) {
+				String s = input(random);
+				boolean[] old = legacy(s);
+				boolean[] now = current(s);
+				for (int k = 0; k < CHECKS.length; ++k) {
+					if (old[k] != now[k] && differences++ < 20) {
+						stdout.println(CHECKS[k] + " differs on [" + s + "]: was " + old[k] + ", now " + now[k]);
+					}
+				}
+			}
+		} finally {
+			System.setOut(stdout);
+		}
+		System.out.println(inputs + " inputs, " + differences + " differences");
+		if (differences > 0) {
+			System.exit(1);
+		}
+	}//end main
+
+	private static String input(Random random) {
+		StringBuilder b = new StringBuilder();
+		if (random.nextInt(10) == 0) {
+			return "(" + random.nextInt(1000) + ")" + random.nextInt(1000) + "-" + random.nextInt(10000);
+		}
+		int length = random.nextInt(random.nextBoolean() ? 6 : 36);
+		int kind = random.nextInt(3);
+		for (int j = 0; j < length; ++j) {
+			if (kind == 0) {
+				b.append(CHARS.charAt(random.nextInt(CHARS.length())));
+			} else if (kind == 1) {
+				b.append((char) ('0' + random.nextInt(10)));
+			} else {
+				b.append(random.nextInt(3) == 0 ? (char) ('0' + random.nextInt(10)) : (char) ('A' + random.nextInt(26)));
+			}
+		}
+		return b.toString();
+	}
+
+	private static boolean[] legacy(String s) {
+		boolean[] r = new boolean[CHECKS.length];
+		for (int mode = 1; mode <= 4; ++mode) {
+			r[mode - 1] = validateAddress(s, mode);
+			r[mode + 3] = validateCar(s, mode);
+		}
+		r[8] = validateName(s);
+		r[9] = validatePhone(s);
+		try {
+			r[10] = validateYears(s);
+		} catch (NumberFormatException e) {
+			r[10] = false;
+		}
+		r[11] = validateBill(s);
+		// the menus checked the range of a well formed year after validateCar
+		r[12] = r[7] && Integer.parseInt(s.trim()) >= 1970 && Integer.parseInt(s.trim()) <= 2019;
+		return r;
+	}
+
+	private static boolean[] current(String s) {
+		boolean[] r = new boolean[CHECKS.length];
+		for (int mode = 1; mode <= 4; ++mode) {
+			r[mode - 1] = MechanicShop.validateAddress(s, mode);
+			r[mode + 3] = MechanicShop.validateCar(s, mode);
+		}
+		r[8] = MechanicShop.validateName(s);
+		r[9] = MechanicShop.validatePhone(s);
+		r[10] = MechanicShop.validateYears(s);
+		r[11] = MechanicShop.validateBill(s);
+		r[12] = Validator.CAR_YEAR.check(s) == Validator.OK;
+		return r;
+	}
+
+	// the checks as they were before Validator, unchanged
+
+	static boolean validateName(String name){
+		name = name.trim();		
+		if(name.length() > 32) {
+			System.out.println("ERROR: name must be 32 characters or less");			
+			return false;
+		}
+	
+		if(name.isEmpty()) {
+			System.out.println("ERROR: name can not be empty");
+			return false;
+		} 
+		
+		char[] chars = name.toCharArray();
+		for (char c : chars) {
+			if( (!Character.isLetter(c) && c != '-') &&  (c != '\'' &&  c != ' ') ) {
+				System.out.println("ERROR: name must be composed of only"); 
+				System.out.println(" * alphabetical characters (A-Z,a-z),"); 
+				System.out.println(" * hyphens (-),");
+				System.out.println(" * and/or apostrophes(')");				
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	static boolean validatePhone(String phone){
+		if(phone.isEmpty()) {
+			System.out.println("ERROR: phone number must not empty");
+			return false;
+		}
+
+		if((phone.length() != 13 || phone.charAt(0) != '(') || (phone.charAt(4) != ')' || phone.charAt(8) != '-')) {
+			System.out.println("ERROR: phone number must be of the form (###)###-####");	
+			return false;
+		}		
+
+		char[] chars = phone.toCharArray();
+		int numCount = 0;
+
+		for (char c: chars) {
+			if(Character.isDigit(c)) {
+				numCount++;
+			}
+			
+			if(!Character.isDigit(c) && c != '-' && c != '(' && c != ')') {
+				System.out.println("ERROR: phone number must be of the form (###)###-####");
+				return false;
+			}
+		}
+
+		if(numCount != 10) {
+			System.out.println("ERROR: phone number must be of the form (###)###-####");
+			return false;
+		}
+
+		return true;
+	}
+
+	static boolean validateAddress(String address, int mode){
+		address = address.trim();		
+		if(address.isEmpty()) {
+			System.out.println("ERROR: input line must not empty");
+			return false;
+		}		
+
+		if (mode == 1) { // street address
+			char[] chars = address.toCharArray();
+			for (char c : chars) {
+				if( !Character.isDigit(c) && ((!Character.isLetter(c) && c != '.') &&  (c != '-' &&  c != ' ')) ) {
+					System.out.println("ERROR: street address must be composed of only"); 
+					System.out.println(" * alphabetical characters (A-Z,a-z),"); 
+					System.out.println(" * numerical characters (0-9),");
+					System.out.println(" * spaces ( ),");
+					System.out.println(" * hyphens (-),");
+					System.out.println(" * and/or periods (.),");			
+					return false;
+				}
+			}
+		} else if (mode == 2) { // city
+			char[] chars = address.toCharArray();
+			for (char c : chars) {
+				if( (!Character.isDigit(c)) && ((!Character.isLetter(c) && c != '.') &&  (c != '-' &&  c != ' ')) ) {
+					System.out.println("ERROR: City must be composed of only"); 
+					System.out.println(" * alphabetical characters (A-Z,a-z),"); 
+					System.out.println(" * numerical characters (0-9),");
+					System.out.println(" * spaces ( ),");
+					System.out.println(" * hyphens (-),");
+					System.out.println(" * and/or periods (.),");			
+					return false;
+				}
+			}
+		} else if (mode == 3) { // state
+			if (address.length() != 2) {
+				System.out.println("ERROR: State code must be two capital letters (ex: CA, NY)");
+				return false;
+			}
+
+			char[] chars = address.toCharArray();
+			for (char c : chars) {
+				if(!Character.isUpperCase(c)) {		
+					System.out.println("ERROR: State code must be two capital letters (ex: CA, NY)");
+					return false;
+				}
+			}
+		} else if (mode == 4) { // zip
+			if (address.length() != 5) {
+				System.out.println("ERROR: Zip code must be 5 digits long");
+				return false;
+			}
+
+			char[] chars = address.toCharArray();
+			for (char c : chars) {
+				if(!Character.isDigit(c)) {		
+					System.out.println("ERROR: Zip code must be only composed of digits");
+					return false;
+				}
+			}
+		}	
+
+		return true;
+	}
+
+	static boolean validateYears(String years){
+		char[] chars = years.toCharArray();
+		for (char c : chars) {
+			if(!Character.isDigit(c)) {		
+				System.out.println("ERROR: years of experience must be a number from 0 to 99 inclusive");
+				return false;
+			}
+		}		
+
+		int experience = Integer.parseInt(years);
+
+		if(experience < 0 || experience >= 100) {
+			System.out.println("ERROR: years of experience must be a number from 0 to 99 inclusive");		
+			return false;
+		}
+
+		return true;
+	}
+	
+	static boolean validateCar(String input, int mode) {
+		input = input.trim();
+		if (mode == 1) { // VIN
+			Boolean alpha = false;
+			Boolean numeric = false;
+			if (input.length() != 16) {
+					System.out.println("ERROR: VIN must be 16 characters long");
+					return false;
+			}
+			char[] chars = input.toCharArray();
+			for (char c : chars) {
+				if (!Character.isLetterOrDigit(c)) {
+					System.out.println("ERROR: VIN must be only composed of digits and letters");
+					return false;
+				}
+				else {
+					if (Character.isLetter(c)) {
+						alpha = true;
+					}
+					if (Character.isDigit(c)) {
+						numeric = true;
+					}
+			
+				}
+			}
+		
+			if (!(alpha && numeric)) {
+				System.out.println("ERROR: VIN must contain both digits and letters");
+				return false;
+			}
+			
+			return true;
+		} else if (mode == 2) { // MAKE
+			if(input.length() > 32) {
+				System.out.println("ERROR: make must be 32 characters or less");			
+				return false;
+			}
+			char[] chars = input.toCharArray();
+			for (char c : chars) {
+				if(!Character.isLetterOrDigit(c) && ((c != '&') &&  (c != '-' &&  c != ' ')) ) {
+					System.out.println("ERROR: make must be composed of only"); 
+					System.out.println(" * alphabetical characters (A-Z,a-z),"); 
+					System.out.println(" * numerical characters (0-9),");
+					System.out.println(" * spaces ( ),");
+					System.out.println(" * hyphens (-),");
+					System.out.println(" * and/or ampersands (&),");			
+					return false;
+				}
+			}
+			return true;
+		} else if (mode == 3) { // MODEL
+			if(input.length() > 32) {
+					System.out.println("ERROR: model must be 32 characters or less");			
+					return false;
+			}
+			char[] chars = input.toCharArray();
+			for (char c : chars) {
+				if(!Character.isLetterOrDigit(c) && (c != '-' &&  c != ' ') ) {
+					System.out.println("ERROR: model must be composed of only"); 
+					System.out.println(" * alphabetical characters (A-Z,a-z),"); 
+					System.out.println(" * numerical characters (0-9),");
+					System.out.println(" * spaces ( ),");
+					System.out.println(" * and/ or hyphens (-),");			
+					return false;
+				}
+			}
+			return true;
+		} else if (mode == 4) { // YEAR
+			if(input.length() != 4) {
+					System.out.println("ERROR: year must be 4 digits");			
+					return false;
+			} else {
+				char[] chars = input.toCharArray();
+				for (char c : chars) {
+					if(!Character.isDigit(c)) {
+						System.out.println("ERROR: year must be composed of only 4 digits"); 		
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+		return true;
+	}
+	
+	static boolean validateBill(String bill){
+		if(bill.isEmpty()) {
+			System.out.println("ERROR: total bill must not empty");
+			return false;
+		}		
+
+		char[] chars = bill.toCharArray();
+		for (char c : chars) {
+			if(!Character.isDigit(c)) {		
+				System.out.println("ERROR: bill must be composed of numbers only");
+				return false;
+			}
+		}		
+
+		return true;
+	}
+}
@@ -0,0 +1,89 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter over strings: mightContain() never answers false for a key
+ * that was added, and answers true for a key that was not with roughly the
+ * false positive rate the filter was sized for.  Keys can be added from
+ * several threads at once.
+ *
+ * Each key is hashed once to 64 bits; the probe positions are derived from
+ * two mixes of that hash (double hashing), and the bit array has a power of
+ * two size so positions are taken with a mask.
+ *
+ */
+
+public class BloomFilter {
+	private final AtomicLongArray _bits;
+	private final long _mask;
+	private final int _hashes;
+
+	/**
+	 * @param expected the number of keys the filter is sized for
+	 * @param fpp the false positive rate wanted at that many keys, e.g. 0.01
+	 */
+	public BloomFilter(long expected, double fpp) {
+		if (expected <= 0 || fpp <= 0 || fpp >= 1) {
+			throw new IllegalArgumentException("expected keys must be positive and the false positive rate between 0 and 1");
+		}
+		double ln2 = Math.log(2);
+		long bits = (long) Math.ceil(-expected * Math.log(fpp) / (ln2 * ln2));
+		long size = Math.max(64, Long.highestOneBit(bits - 1) << 1);
+		if (size / 64 > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Bloom filter for " + expected + " keys is too large");
+		}
+		this._bits = new AtomicLongArray((int) (size / 64));
+		this._mask = size - 1;
+		this._hashes = Math.max(1, (int) Math.round((double) size / expected * ln2));
+	}
+
+	public void add(String key) {
+		long h = hash(key);
+		long h1 = mix(h);
+		long h2 = mix(h ^ 0x9E3779B97F4A7C15L) | 1;
+		for (int i = 0; i < this._hashes; ++i) {
+			long bit = (h1 + i * h2) & this._mask;
+			int word = (int) (bit >>> 6);
+			long flag = 1L << bit;
+			long old;
+			while (((old = this._bits.get(word)) & flag) == 0 && !this._bits.compareAndSet(word, old, old | flag)) {
+				// another thread changed the word, retry
+			}
+		}
+	}//end add
+
+	/**
+	 * @return false when the key was certainly never added
+	 */
+	public boolean mightContain(String key) {
+		long h = hash(key);
+		long h1 = mix(h);
+		long h2 = mix(h ^ 0x9E3779B97F4A7C15L) | 1;
+		for (int i = 0; i < this._hashes; ++i) {
+			long bit = (h1 + i * h2) & this._mask;
+			if ((this._bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}//end mightContain
+
+	//64 bit FNV-1a over the chars of the key
+	private static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); ++i) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	//the MurmurHash3 finalizer, spreads every input bit over the result
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb93e63b97f53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,527 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * This class loads the shop data files (customer.csv, mechanic.csv, car.csv,
+ * owns.csv, service_request.csv and closed_request.csv) by streaming them from
+ * this process through COPY ... FROM STDIN.  Unlike the server-side COPY in
+ * sql/create.sql it needs no access to the database host's filesystem, so it
+ * works against any server the client can reach.
+ *
+ * Tables are loaded in foreign key order.  Every line is checked before it is
+ * sent: lines with the wrong number of fields or a malformed number or date
+ * are reported with their line number and skipped.  The rows/s achieved for
+ * each table is printed as it finishes.
+ *
+ * loadParallel() is the variant for large histories: it splits big files into
+ * byte ranges copied over several connections at once and drops the
+ * secondary indexes and foreign keys for the duration of the load.
+ *
+ */
+
+public class BulkLoader {
+	//field kinds used to check each line before it is sent
+	static final char INT = 'i';
+	static final char TEXT = 't';
+	static final char DATE = 'd';
+
+	/**
+	 * One data file and the table it is copied into.
+	 */
+	static final class TableFile {
+		final String table;
+		final String file;
+		final String columns;
+		final String kinds;
+
+		TableFile(String table, String file, String columns, String kinds) {
+			this.table = table;
+			this.file = file;
+			this.columns = columns;
+			this.kinds = kinds;
+		}
+
+		String copySql() {
+			return "COPY " + table + " (" + columns + ") FROM STDIN WITH DELIMITER ','";
+		}
+	}
+
+	//in foreign key order, see sql/create.sql
+	static final TableFile[] TABLES = {
+		new TableFile("Customer", "customer.csv", "id, fname, lname, phone, address", "itttt"),
+		new TableFile("Mechanic", "mechanic.csv", "id, fname, lname, experience", "itti"),
+		new TableFile("Car", "car.csv", "vin, make, model, year", "ttti"),
+		new TableFile("Owns", "owns.csv", "ownership_id, customer_id, car_vin", "iit"),
+		new TableFile("Service_Request", "service_request.csv", "rid, customer_id, car_vin, date, odometer, complain", "iitdit"),
+		new TableFile("Closed_Request", "closed_request.csv", "wid, rid, mid, date, comment, bill", "iiidti")
+	};
+
+	//the tables that can be loaded at the same time, level by level
+	static final String[][] LEVELS = {
+		{"Customer", "Mechanic", "Car"},
+		{"Owns"},
+		{"Service_Request"},
+		{"Closed_Request"}
+	};
+
+	//bytes collected before they are handed to the driver
+	private static final int CHUNK = 1 << 16;
+	//files are not split into ranges smaller than this
+	private static final long MIN_RANGE = 1L << 20;
+
+	private final MechanicShop _esql;
+
+	public BulkLoader(MechanicShop esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to load every data file found in a directory.
+	 *
+	 * @param dataDir the directory holding the csv files
+	 * @return the number of lines rejected
+	 * @throws java.sql.SQLException when a COPY failed
+	 * @throws java.io.IOException when a data file could not be read
+	 */
+	public int load(File dataDir) throws SQLException, IOException {
+		long start = System.nanoTime();
+		long rows = 0;
+		int rejected = 0;
+		for (TableFile t : TABLES) {
+			File file = new File(dataDir, t.file);
+			if (!file.isFile()) {
+				System.out.println("Skipping " + t.table + ": " + file + " not found");
+				continue;
+			}
+			long[] result = loadFile(t, file);
+			rows += result[0];
+			rejected += (int) result[1];
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Loaded %d rows in %.2f s (%.0f rows/s), %d lines rejected%n", rows, seconds, rows / Math.max(seconds, 1e-9), rejected);
+		// the maintained totals and the reports cached before the load no longer hold
+		if (!ShopOperations.ensureBillTotals(this._esql)) {
+			ShopOperations.refreshBillTotals(this._esql);
+		}
+		this._esql.getReportCache().clear();
+		this._esql.getServiceCounts().invalidate();
+		this._esql.getCustomerNames().invalidate();
+		this._esql.getExistence().invalidate();
+		this._esql.clearEntityCaches();
+		return rejected;
+	}//end load
+
+	/**
+	 * Method to load every data file found in a directory using several
+	 * connections at once.  The secondary indexes and foreign keys of the
+	 * shop tables are dropped first and rebuilt at the end, even when the
+	 * load fails.  Tables are loaded level by level in foreign key order
+	 * (Customer, Mechanic and Car, then Owns, then Service_Request, then
+	 * Closed_Request); within a level every file is split into byte ranges
+	 * that end on a line break and each range is copied over its own
+	 * connection.  The bill total trigger on Closed_Request is disabled
+	 * for the load as well, so the workers do not contend on the customers'
+	 * totals, and the totals are recomputed at the end.  Each range commits
+	 * on its own, so a failed load can leave
+	 * part of a table loaded.  Rejected lines are reported with their byte
+	 * range and their line number within that range.
+	 *
+	 * @param dataDir the directory holding the csv files
+	 * @param workers the number of concurrent COPY streams
+	 * @return the number of lines rejected
+	 * @throws java.sql.SQLException when a COPY or a rebuild failed
+	 * @throws java.io.IOException when a data file could not be read
+	 */
+	public int loadParallel(File dataDir, int workers) throws SQLException, IOException {
+		if (workers > this._esql.getPool().getMaxSize()) {
+			System.out.println("Only " + this._esql.getPool().getMaxSize() + " pooled connections, using that many workers");
+			workers = this._esql.getPool().getMaxSize();
+		}
+		long start = System.nanoTime();
+		List<String[]> saved = dropIndexesAndForeignKeys();
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		long rows = 0;
+		int rejected = 0;
+		try {
+			for (String[] level : LEVELS) {
+				List<Future<long[]>> parts = new ArrayList<Future<long[]>>();
+				for (String table : level) {
+					TableFile t = tableFile(table);
+					File file = new File(dataDir, t.file);
+					if (!file.isFile()) {
+						System.out.println("Skipping " + t.table + ": " + file + " not found");
+						continue;
+					}
+					long[] bounds = split(file, workers);
+					for (int i = 0; i + 1 < bounds.length; ++i) {
+						parts.add(executor.submit(copyRange(t, file, bounds[i], bounds[i + 1])));
+					}
+				}
+				for (Future<long[]> part : parts) {
+					long[] result = await(part);
+					rows += result[0];
+					rejected += (int) result[1];
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			rebuild(saved);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Loaded %d rows in %.2f s (%.0f rows/s) with %d workers, %d lines rejected%n", rows, seconds, rows / Math.max(seconds, 1e-9), workers, rejected);
+		// the maintained totals and the reports cached before the load no longer hold
+		if (!ShopOperations.ensureBillTotals(this._esql)) {
+			ShopOperations.refreshBillTotals(this._esql);
+		}
+		this._esql.getReportCache().clear();
+		this._esql.getServiceCounts().invalidate();
+		this._esql.getCustomerNames().invalidate();
+		this._esql.getExistence().invalidate();
+		this._esql.clearEntityCaches();
+		return rejected;
+	}//end loadParallel
+
+	private Callable<long[]> copyRange(final TableFile t, final File file, final long from, final long to) {
+		return new Callable<long[]>() {
+			public long[] call() throws SQLException, IOException {
+				FileInputStream in = new FileInputStream(file);
+				try {
+					long skipped = 0;
+					while (skipped < from) {
+						skipped += in.skip(from - skipped);
+					}
+					BufferedReader reader = new BufferedReader(new InputStreamReader(new RangeInputStream(in, to - from), StandardCharsets.UTF_8), CHUNK);
+					String source = file.getName() + " (bytes " + from + "-" + to + ")";
+					return copy(t, source, reader, 1);
+				} finally {
+					in.close();
+				}
+			}
+		};
+	}
+
+	private static long[] await(Future<long[]> part) throws SQLException, IOException {
+		try {
+			return part.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while loading", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) throw (SQLException) cause;
+			if (cause instanceof IOException) throw (IOException) cause;
+			throw new SQLException(cause);
+		}
+	}
+
+	/**
+	 * Method to split a file into at most the given number of byte ranges,
+	 * each ending just after a line break.  Files smaller than one range
+	 * size are not split.
+	 *
+	 * @return the range boundaries, from 0 to the file length
+	 */
+	static long[] split(File file, int parts) throws IOException {
+		long length = file.length();
+		parts = (int) Math.max(1, Math.min(parts, length / MIN_RANGE));
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			for (int i = 1; i < parts; ++i) {
+				long pos = Math.max(length * i / parts, bounds.get(bounds.size() - 1));
+				raf.seek(pos);
+				int b;
+				while ((b = raf.read()) >= 0 && b != '\n') {
+					++pos;
+				}
+				pos = Math.min(pos + 1, length);
+				if (pos > bounds.get(bounds.size() - 1) && pos < length) {
+					bounds.add(pos);
+				}
+			}
+		} finally {
+			raf.close();
+		}
+		bounds.add(length);
+
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}//end split
+
+	/**
+	 * Method to drop the foreign keys and the secondary (non constraint)
+	 * indexes of the shop tables, and disable the bill total trigger.
+	 *
+	 * @return the statements that recreate them, indexes first
+	 */
+	private List<String[]> dropIndexesAndForeignKeys() throws SQLException {
+		String tables = "'customer'::regclass, 'mechanic'::regclass, 'car'::regclass, 'owns'::regclass, 'service_request'::regclass, 'closed_request'::regclass";
+		ResultTable indexes = this._esql.executeQueryAndReturnTable(
+			"SELECT CAST(I.indexrelid AS regclass) AS name, pg_get_indexdef(I.indexrelid) AS def FROM pg_index I " +
+			"WHERE I.indrelid IN (" + tables + ") AND NOT EXISTS (SELECT 1 FROM pg_constraint C WHERE C.conindid = I.indexrelid)");
+		ResultTable keys = this._esql.executeQueryAndReturnTable(
+			"SELECT CAST(conrelid AS regclass) AS tbl, conname, pg_get_constraintdef(oid) AS def FROM pg_constraint " +
+			"WHERE contype = 'f' AND conrelid IN (" + tables + ")");
+
+		List<String[]> saved = new ArrayList<String[]>();
+		for (int i = 0; i < indexes.size(); ++i) {
+			saved.add(new String[] { "DROP INDEX " + indexes.getString(i, "name"), indexes.getString(i, "def") });
+		}
+		for (int i = 0; i < keys.size(); ++i) {
+			String table = keys.getString(i, "tbl");
+			String name = keys.getString(i, "conname");
+			saved.add(new String[] { "ALTER TABLE " + table + " DROP CONSTRAINT " + name,
+				"ALTER TABLE " + table + " ADD CONSTRAINT " + name + " " + keys.getString(i, "def") });
+		}
+		if (this._esql.executeQuery("SELECT 1 FROM pg_trigger WHERE tgname = 'closed_request_bill_total' AND tgrelid = 'closed_request'::regclass") > 0) {
+			saved.add(new String[] { "ALTER TABLE Closed_Request DISABLE TRIGGER closed_request_bill_total",
+				"ALTER TABLE Closed_Request ENABLE TRIGGER closed_request_bill_total" });
+		}
+
+		// foreign keys go first so no index they rely on is dropped under them
+		for (int i = saved.size() - 1; i >= 0; --i) {
+			this._esql.executeUpdate(saved.get(i)[0]);
+		}
+		System.out.println("Dropped " + indexes.size() + " secondary indexes and " + keys.size() + " foreign keys");
+		return saved;
+	}//end dropIndexesAndForeignKeys
+
+	private void rebuild(List<String[]> saved) throws SQLException {
+		long start = System.nanoTime();
+		for (String[] statement : saved) {
+			this._esql.executeUpdate(statement[1]);
+		}
+		System.out.printf("Rebuilt %d indexes and foreign keys in %.2f s%n", saved.size(), (System.nanoTime() - start) / 1e9);
+	}
+
+	private static TableFile tableFile(String table) {
+		for (TableFile t : TABLES) {
+			if (t.table.equals(table)) {
+				return t;
+			}
+		}
+		throw new IllegalArgumentException("Unknown table " + table);
+	}
+
+	/**
+	 * Input stream that ends after a fixed number of bytes of another stream.
+	 */
+	private static final class RangeInputStream extends FilterInputStream {
+		private long _remaining;
+
+		RangeInputStream(InputStream in, long length) {
+			super(in);
+			this._remaining = length;
+		}
+
+		public int read() throws IOException {
+			if (this._remaining <= 0) {
+				return -1;
+			}
+			int b = super.read();
+			if (b >= 0) {
+				--this._remaining;
+			}
+			return b;
+		}
+
+		public int read(byte[] buf, int off, int len) throws IOException {
+			if (this._remaining <= 0) {
+				return -1;
+			}
+			int n = super.read(buf, off, (int) Math.min(len, this._remaining));
+			if (n > 0) {
+				this._remaining -= n;
+			}
+			return n;
+		}
+
+		public void close() {
+			// the underlying file is closed by its owner
+		}
+	}
+
+	/**
+	 * Method to stream one file into its table.
+	 *
+	 * @return the number of rows copied and the number of lines rejected
+	 */
+	long[] loadFile(TableFile t, File file) throws SQLException, IOException {
+		long start = System.nanoTime();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), CHUNK);
+		try {
+			long[] result = copy(t, file.getName(), reader, 1);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%-16s %8d rows %6.2f s %10.0f rows/s %6d rejected%n", t.table, result[0], seconds, result[0] / Math.max(seconds, 1e-9), result[1]);
+			return result;
+		} finally {
+			reader.close();
+		}
+	}//end loadFile
+
+	/**
+	 * Method to check the lines of a reader and COPY the good ones into a
+	 * table over one pooled connection.
+	 *
+	 * @param t the table being loaded
+	 * @param source name used when reporting rejected lines
+	 * @param reader the lines to load
+	 * @param firstLine line number of the first line read
+	 * @return the number of rows copied and the number of lines rejected
+	 */
+	long[] copy(TableFile t, String source, BufferedReader reader, long firstLine) throws SQLException, IOException {
+		ConnectionPool pool = this._esql.getPool();
+		PooledConnection pc = pool.borrow();
+		CopyIn copy = null;
+		try {
+			Statement stmt = pc.getConnection().createStatement();
+			// the data files write dates as month/day/year
+			stmt.execute("SET DateStyle TO 'ISO, MDY'");
+			stmt.close();
+
+			copy = pc.getConnection().unwrap(PGConnection.class).getCopyAPI().copyIn(t.copySql());
+			StringBuilder chunk = new StringBuilder(CHUNK + 1024);
+			long lineNumber = firstLine - 1;
+			long rejected = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				++lineNumber;
+				if (line.endsWith("\r")) {
+					line = line.substring(0, line.length() - 1);
+				}
+				if (line.isEmpty()) {
+					continue;
+				}
+				String error = check(t, line);
+				if (error != null) {
+					System.out.println(source + ":" + lineNumber + ": " + error);
+					++rejected;
+					continue;
+				}
+				chunk.append(line).append('\n');
+				if (chunk.length() >= CHUNK) {
+					write(copy, chunk);
+				}
+			}
+			write(copy, chunk);
+			long rows = copy.endCopy();
+			copy = null;
+			return new long[] { rows, rejected };
+		} catch (SQLException e) {
+			pc.checkBroken(e);
+			throw e;
+		} finally {
+			if (copy != null && copy.isActive()) {
+				try {
+					copy.cancelCopy();
+				} catch (SQLException e) {
+					// ignored, the connection is being released anyway
+				}
+			}
+			pool.release(pc);
+		}
+	}//end copy
+
+	private static void write(CopyIn copy, StringBuilder chunk) throws SQLException {
+		if (chunk.length() > 0) {
+			byte[] bytes = chunk.toString().getBytes(StandardCharsets.UTF_8);
+			copy.writeToCopy(bytes, 0, bytes.length);
+			chunk.setLength(0);
+		}
+	}
+
+	/**
+	 * Method to check one line against the field kinds of its table.
+	 *
+	 * @return null when the line is well formed, otherwise what is wrong
+	 */
+	static String check(TableFile t, String line) {
+		int field = 0;
+		int start = 0;
+		while (true) {
+			int end = line.indexOf(',', start);
+			if (end < 0) {
+				end = line.length();
+			}
+			if (field >= t.kinds.length()) {
+				return "expected " + t.kinds.length() + " fields, found more";
+			}
+			char kind = t.kinds.charAt(field);
+			if (kind == INT && !isInteger(line, start, end)) {
+				return "field " + (field + 1) + " is not a number: " + line.substring(start, end);
+			}
+			if (kind == DATE && !isDate(line, start, end)) {
+				return "field " + (field + 1) + " is not a date: " + line.substring(start, end);
+			}
+			++field;
+			if (end == line.length()) {
+				break;
+			}
+			start = end + 1;
+		}
+		if (field != t.kinds.length()) {
+			return "expected " + t.kinds.length() + " fields, found " + field;
+		}
+		return null;
+	}//end check
+
+	private static boolean isInteger(String s, int start, int end) {
+		if (start < end && s.charAt(start) == '-') {
+			++start;
+		}
+		if (start == end || end - start > 10) {
+			return false;
+		}
+		for (int i = start; i < end; ++i) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//accepts M/D/YYYY or YYYY-MM-DD, optionally followed by a time
+	private static boolean isDate(String s, int start, int end) {
+		int space = s.indexOf(' ', start);
+		if (space >= 0 && space < end) {
+			end = space;
+		}
+		int digits = 0;
+		int separators = 0;
+		for (int i = start; i < end; ++i) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				++digits;
+			} else if (c == '/' || c == '-') {
+				++separators;
+			} else {
+				return false;
+			}
+		}
+		return separators == 2 && digits >= 6 && digits <= 8;
+	}
+}
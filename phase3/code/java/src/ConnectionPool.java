@@ -0,0 +1,222 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class defines a bounded pool of physical connections to the PostgreSQL
+ * server.  The MechanicShop helpers borrow a connection for the duration of a
+ * single operation and hand it back afterwards, so several sessions can share
+ * one JVM without queueing behind a single connection.
+ *
+ * The pool is sized and tuned through system properties:
+ *   mechanicshop.pool.maxSize          maximum number of open connections (8)
+ *   mechanicshop.pool.borrowTimeoutMs  how long borrow() waits for a free slot (30000)
+ *   mechanicshop.pool.idleTimeoutMs    idle time after which a connection is closed (300000)
+ *   mechanicshop.pool.validateAfterMs  idle time after which a connection is validated on borrow (5000)
+ *
+ */
+
+public class ConnectionPool {
+	private final String _url;
+	private final Properties _info;
+	private final int _maxSize;
+	private final long _borrowTimeout;
+	private final long _idleTimeout;
+	private final long _validateAfter;
+
+	//one permit per connection that may still be handed out
+	private final Semaphore _permits;
+	//idle connections, most recently used first
+	private final LinkedBlockingDeque<PooledConnection> _idle = new LinkedBlockingDeque<PooledConnection>();
+	private final ScheduledExecutorService _evictor;
+	private volatile boolean _closed = false;
+	//records the statements run on the connections, null when not recording
+	private volatile WorkloadRecorder _recorder = null;
+
+	public ConnectionPool(String url, Properties info) {
+		this._url = url;
+		this._info = info;
+		this._maxSize = Integer.getInteger("mechanicshop.pool.maxSize", 8);
+		this._borrowTimeout = Long.getLong("mechanicshop.pool.borrowTimeoutMs", 30000L);
+		this._idleTimeout = Long.getLong("mechanicshop.pool.idleTimeoutMs", 300000L);
+		this._validateAfter = Long.getLong("mechanicshop.pool.validateAfterMs", 5000L);
+		this._permits = new Semaphore(this._maxSize, true);
+
+		this._evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "connection-pool-evictor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1000L, this._idleTimeout / 2);
+		this._evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evictIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the maximum number of connections this pool will open
+	 */
+	public int getMaxSize() {
+		return this._maxSize;
+	}
+
+	/**
+	 * Method to start (or, given null, stop) recording the statements bound
+	 * through MechanicShop.prepare() on this pool's connections.
+	 */
+	void setRecorder(WorkloadRecorder recorder) {
+		this._recorder = recorder;
+	}
+
+	/**
+	 * @return the active workload recorder, or null
+	 */
+	WorkloadRecorder getRecorder() {
+		return this._recorder;
+	}
+
+	/**
+	 * Method to open a physical connection outside of the pool, with the
+	 * pool's settings, for work that must not take a pooled connection away
+	 * from the helpers.  The caller closes it.
+	 *
+	 * @return a new connection
+	 * @throws java.sql.SQLException when the connection could not be opened
+	 */
+	Connection openConnection() throws SQLException {
+		return DriverManager.getConnection(this._url, this._info);
+	}
+
+	/**
+	 * Method to borrow a connection from the pool.  Waits up to the borrow
+	 * timeout for a free slot, reuses the most recently released idle
+	 * connection when there is one (validating it first if it sat idle for a
+	 * while) and otherwise opens a new physical connection.
+	 *
+	 * @return a connection that must be handed back through release()
+	 * @throws java.sql.SQLException when no connection could be obtained in time
+	 */
+	public PooledConnection borrow() throws SQLException {
+		if (this._closed) {
+			throw new SQLException("Connection pool is closed", "08003");
+		}
+
+		try {
+			if (!this._permits.tryAcquire(this._borrowTimeout, TimeUnit.MILLISECONDS)) {
+				throw new SQLException("Timed out after " + this._borrowTimeout + "ms waiting for a database connection", "08001");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection", "08001", e);
+		}
+
+		try {
+			PooledConnection pc;
+			while ((pc = this._idle.pollFirst()) != null) {
+				if (validate(pc)) {
+					return pc;
+				}
+				pc.closeQuietly();
+			}
+
+			// no usable idle connection, obtain a new physical one
+			Connection conn = DriverManager.getConnection(this._url, this._info);
+			return new PooledConnection(conn, this);
+		} catch (SQLException e) {
+			this._permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			this._permits.release();
+			throw e;
+		}
+	}//end borrow
+
+	/**
+	 * Method to hand a borrowed connection back to the pool.  Connections that
+	 * were flagged as broken, or that are already closed, are discarded.
+	 *
+	 * @param pc the connection obtained from borrow()
+	 */
+	public void release(PooledConnection pc) {
+		if (pc == null) {
+			return;
+		}
+		try {
+			boolean reusable = !this._closed && !pc.isBroken();
+			if (reusable) {
+				try {
+					Connection conn = pc.getConnection();
+					if (conn.isClosed()) {
+						reusable = false;
+					} else if (!conn.getAutoCommit()) {
+						// never leak an open transaction to the next borrower
+						conn.rollback();
+						conn.setAutoCommit(true);
+					}
+				} catch (SQLException e) {
+					reusable = false;
+				}
+			}
+
+			if (reusable) {
+				pc.touch();
+				this._idle.offerFirst(pc);
+			} else {
+				pc.closeQuietly();
+			}
+		} finally {
+			this._permits.release();
+		}
+	}//end release
+
+	/**
+	 * Method to close every idle connection and refuse further borrows.
+	 * Connections still out on loan are closed when they are released.
+	 */
+	public void close() {
+		this._closed = true;
+		this._evictor.shutdownNow();
+		PooledConnection pc;
+		while ((pc = this._idle.pollFirst()) != null) {
+			pc.closeQuietly();
+		}
+	}//end close
+
+	private boolean validate(PooledConnection pc) {
+		if (System.currentTimeMillis() - pc.getLastUsed() < this._validateAfter) {
+			return true;
+		}
+		try {
+			return pc.getConnection().isValid(5);
+		} catch (SQLException e) {
+			return false;
+		}
+	}//end validate
+
+	private void evictIdle() {
+		long now = System.currentTimeMillis();
+		// the oldest idle connections sit at the tail of the deque
+		Iterator<PooledConnection> it = this._idle.descendingIterator();
+		while (it.hasNext()) {
+			PooledConnection pc = it.next();
+			if (now - pc.getLastUsed() < this._idleTimeout) {
+				break;
+			}
+			if (this._idle.removeLastOccurrence(pc)) {
+				pc.closeQuietly();
+			}
+		}
+	}//end evictIdle
+}
@@ -0,0 +1,155 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * This class looks customers up by last name from memory.  Customers are
+ * kept in a TreeMap keyed by their trimmed, lower case last name, so an exact
+ * lookup is one map access and a prefix lookup one sorted range, both case
+ * insensitive and blind to the blanks CHAR(32) pads names with.
+ *
+ * The customers are read with one streaming scan the first time they are
+ * needed, and again by the first lookup after they are older than a time to
+ * live, and kept current in between by ShopOperations.addCustomer.  A lookup
+ * that finds nobody asks the database before giving up, so a customer just
+ * added by another client is found at once.  Every id is kept once, so a
+ * customer committed just before the scan and then reported by
+ * customerAdded() is not listed twice.
+ *
+ */
+
+public class CustomerNameIndex {
+	private static final String SCAN_QUERY = "SELECT id, fname, lname, phone FROM Customer";
+	//the lookup of a name the index does not know, as a LIKE pattern on the key
+	private static final String MISS_QUERY = "SELECT id, fname, lname, phone FROM Customer WHERE lower(trim(lname)) LIKE ? ESCAPE '\\'";
+	//the columns returned by find(), as the menus used to read them
+	private static final String[] COLUMNS = { "fname", "phone", "id" };
+	private static final int[] TYPES = { ResultTable.STRING, ResultTable.STRING, ResultTable.INT };
+
+	private static final class Customer {
+		final int id;
+		final String fname;
+		final String phone;
+
+		Customer(int id, String fname, String phone) {
+			this.id = id;
+			this.fname = fname;
+			this.phone = phone;
+		}
+	}
+
+	private final MechanicShop _esql;
+	private final TreeMap<String, List<Customer>> _byName = new TreeMap<String, List<Customer>>();
+	private final Set<Integer> _ids = new HashSet<Integer>();
+	private final long _ttlNanos = Long.getLong("mechanicshop.customerNames.ttlMs", 60000L) * 1000000L;
+	private boolean _loaded = false;
+	private long _loadedAt = 0;
+
+	CustomerNameIndex(MechanicShop esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to find the customers with a last name, or with a last name
+	 * starting with a prefix when the name ends in '*'.
+	 *
+	 * @param lname the last name, case and surrounding blanks are ignored
+	 * @return fname, phone and id of the matching customers
+	 * @throws java.sql.SQLException when the customers had to be read and failed
+	 */
+	public synchronized ResultTable find(String lname) throws SQLException {
+		if (!this._loaded || System.nanoTime() - this._loadedAt > this._ttlNanos) {
+			load();
+		}
+		String key = key(lname);
+		List<List<Customer>> matches = matches(key);
+		if (matches.isEmpty()) {
+			// maybe added by another client since the scan
+			lookup(key);
+			matches = matches(key);
+		}
+
+		ResultTable table = new ResultTable(COLUMNS, TYPES, 8);
+		for (List<Customer> customers : matches) {
+			for (Customer c : customers) {
+				table.addRow(c.fname, c.phone, c.id);
+			}
+		}
+		return table;
+	}//end find
+
+	/**
+	 * Method to add a customer that was just committed.
+	 */
+	public synchronized void customerAdded(int id, String fname, String lname, String phone) {
+		if (this._loaded) {
+			add(id, fname, lname, phone);
+		}
+	}
+
+	/**
+	 * Method to drop the customers so they are read again when next needed.
+	 */
+	public synchronized void invalidate() {
+		this._byName.clear();
+		this._ids.clear();
+		this._loaded = false;
+	}
+
+	private List<List<Customer>> matches(String key) {
+		List<List<Customer>> matches = new ArrayList<List<Customer>>();
+		if (key.endsWith("*")) {
+			String prefix = key.substring(0, key.length() - 1);
+			matches.addAll(this._byName.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values());
+		} else if (this._byName.containsKey(key)) {
+			matches.add(this._byName.get(key));
+		}
+		return matches;
+	}
+
+	private void load() throws SQLException {
+		this._byName.clear();
+		this._ids.clear();
+		this._loadedAt = System.nanoTime();
+		this._esql.executeQueryStreaming(SCAN_QUERY, new RowHandler() {
+			public void handleRow(ResultSet rs) throws SQLException {
+				add(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4));
+			}
+		});
+		this._loaded = true;
+	}//end load
+
+	//reads the customers matching a key from the database into the index
+	private void lookup(String key) throws SQLException {
+		boolean prefix = key.endsWith("*");
+		String name = prefix ? key.substring(0, key.length() - 1) : key;
+		String pattern = name.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + (prefix ? "%" : "");
+		this._esql.executeQueryStreaming(MISS_QUERY, new RowHandler() {
+			public void handleRow(ResultSet rs) throws SQLException {
+				add(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4));
+			}
+		}, pattern);
+	}
+
+	private void add(int id, String fname, String lname, String phone) {
+		if (!this._ids.add(id)) {
+			return;
+		}
+		String key = key(lname);
+		List<Customer> customers = this._byName.get(key);
+		if (customers == null) {
+			customers = new ArrayList<Customer>(1);
+			this._byName.put(key, customers);
+		}
+		customers.add(new Customer(id, fname.trim(), phone.trim()));
+	}
+
+	private static String key(String lname) {
+		return lname.trim().toLowerCase(Locale.ROOT);
+	}
+}
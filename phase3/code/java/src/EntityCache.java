@@ -0,0 +1,119 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least recently used cache of rows keyed by primary key, with
+ * hit and miss counts.  MechanicShop keeps one per entity (customers,
+ * mechanics, cars and the cars owned by each customer); it reads through
+ * them on lookups, fills them with the rows it inserts and drops the entries
+ * its writes make stale.  Only rows that exist are cached, so a key inserted
+ * by another client is found as soon as it is committed.  A value that can
+ * change through other clients without its key changing (e.g. the list of
+ * cars a customer owns) needs a time to live so those changes show up.
+ *
+ * @param <K> the primary key type
+ * @param <V> the cached value type
+ */
+
+public class EntityCache<K, V> {
+	private static final class Entry<V> {
+		final V value;
+		final long expires;
+
+		Entry(V value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	private final String _name;
+	private final long _ttlNanos;
+	private final LinkedHashMap<K, Entry<V>> _entries;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+
+	/**
+	 * @param name what the cache holds, used in stats()
+	 * @param maxSize the number of entries kept at most
+	 */
+	public EntityCache(String name, int maxSize) {
+		this(name, maxSize, 0);
+	}
+
+	/**
+	 * @param name what the cache holds, used in stats()
+	 * @param maxSize the number of entries kept at most
+	 * @param ttlMillis how long an entry is served at most, 0 for no limit
+	 */
+	public EntityCache(String name, final int maxSize, long ttlMillis) {
+		if (maxSize <= 0 || ttlMillis < 0) {
+			throw new IllegalArgumentException("cache size must be positive and time to live cannot be negative");
+		}
+		this._name = name;
+		this._ttlNanos = ttlMillis * 1000000L;
+		this._entries = new LinkedHashMap<K, Entry<V>>(Math.min(maxSize, 1024), 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				if (size() > maxSize) {
+					++_evictions;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return the cached value, or null on a miss
+	 */
+	public synchronized V get(K key) {
+		Entry<V> e = live(key);
+		if (e == null) {
+			++this._misses;
+			return null;
+		}
+		++this._hits;
+		return e.value;
+	}
+
+	/**
+	 * Method to check for a key without counting a lookup or changing the
+	 * eviction order.
+	 *
+	 * @return whether a value is cached for the key
+	 */
+	public synchronized boolean contains(K key) {
+		Entry<V> e = this._entries.get(key);
+		return e != null && (this._ttlNanos == 0 || e.expires - System.nanoTime() > 0);
+	}
+
+	public synchronized void put(K key, V value) {
+		this._entries.put(key, new Entry<V>(value, System.nanoTime() + this._ttlNanos));
+	}
+
+	private Entry<V> live(K key) {
+		Entry<V> e = this._entries.get(key);
+		if (e != null && this._ttlNanos > 0 && e.expires - System.nanoTime() <= 0) {
+			this._entries.remove(key);
+			return null;
+		}
+		return e;
+	}
+
+	public synchronized void invalidate(K key) {
+		this._entries.remove(key);
+	}
+
+	public synchronized void clear() {
+		this._entries.clear();
+	}
+
+	/**
+	 * @return e.g. "cars: 120 hits, 30 misses (80.0% hit rate), 0 evictions, 30 entries"
+	 */
+	public synchronized String stats() {
+		long lookups = this._hits + this._misses;
+		return String.format("%s: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d entries", this._name,
+			this._hits, this._misses, lookups == 0 ? 0.0 : 100.0 * this._hits / lookups, this._evictions, this._entries.size());
+	}
+}
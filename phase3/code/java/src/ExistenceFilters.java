@@ -0,0 +1,113 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * This class answers "does this key exist?" locally when it can.  It holds
+ * a Bloom filter over the keys of Car (vin), Service_Request (rid) and
+ * Mechanic (id); MechanicShop.exists() only asks the database when the filter
+ * says the key might be there, so the checks in the menus' retry loops are
+ * mostly answered without a round trip when the key is wrong.
+ *
+ * The filters are built in the background from a streaming scan of each
+ * table and the keys written through ShopOperations are added as they are
+ * queued.  Until a table's filter is built every check for it goes to the
+ * database.  Keys inserted by other clients are missing from the filters, so
+ * they would be reported as absent until the client restarts.  The filters
+ * are therefore off unless the system property mechanicshop.bloom is set to
+ * true, which is only safe when this client is the only one writing to the
+ * shop.  With the filters off every check asks the database.
+ *
+ */
+
+public class ExistenceFilters {
+	//the tables with a filter
+	static final String[] TABLES = { "Car", "Service_Request", "Mechanic" };
+	//room for the table to grow before the false positive rate climbs
+	private static final int HEADROOM = 4;
+
+	private final MechanicShop _esql;
+	private final boolean _enabled = Boolean.parseBoolean(System.getProperty("mechanicshop.bloom", "false"));
+	private final double _fpp = Double.parseDouble(System.getProperty("mechanicshop.bloom.fpp", "0.01"));
+	//the filters being built or built, by table
+	private final ConcurrentHashMap<String, BloomFilter> _filters = new ConcurrentHashMap<String, BloomFilter>();
+	//the filters that are complete and may answer checks
+	private final ConcurrentHashMap<String, BloomFilter> _ready = new ConcurrentHashMap<String, BloomFilter>();
+
+	ExistenceFilters(MechanicShop esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to build every filter in the background.
+	 *
+	 * @param executor where the scans run
+	 */
+	public void build(ExecutorService executor) {
+		if (!this._enabled) {
+			return;
+		}
+		for (final String table : TABLES) {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						build(table);
+					} catch (SQLException e) {
+						// checks on this table keep going to the database
+						_filters.remove(table);
+						System.err.println("Could not build the " + table + " key filter: " + e.getMessage());
+					}
+				}
+			});
+		}
+	}//end build
+
+	private void build(String table) throws SQLException {
+		String[] pk = MechanicShop.primaryKey(table);
+		List<List<String>> count = this._esql.executeQueryAndReturnResult("SELECT COUNT(*) FROM " + pk[0]);
+		long rows = Long.parseLong(count.get(0).get(0));
+		final BloomFilter filter = new BloomFilter(Math.max(1024, rows * HEADROOM), this._fpp);
+		// registered before the scan so keys written meanwhile are not lost
+		this._filters.put(table, filter);
+		this._esql.executeQueryStreaming("SELECT " + pk[1] + " FROM " + pk[0], new RowHandler() {
+			public void handleRow(ResultSet rs) throws SQLException {
+				filter.add(rs.getString(1));
+			}
+		});
+		if (this._filters.get(table) == filter) {
+			this._ready.put(table, filter);
+		}
+	}//end build
+
+	/**
+	 * @return false when the key certainly does not exist, true when it
+	 *         might (or when there is no filter for the table)
+	 */
+	public boolean mightExist(String table, Object key) {
+		BloomFilter filter = this._ready.get(table);
+		return filter == null || filter.mightContain(key.toString());
+	}
+
+	/**
+	 * Method to add a key written (or about to be written) to a table.
+	 * Adding a key that ends up not being committed only costs an extra
+	 * database check later.
+	 */
+	public void added(String table, Object key) {
+		BloomFilter filter = this._filters.get(table);
+		if (filter != null) {
+			filter.add(key.toString());
+		}
+	}
+
+	/**
+	 * Method to drop every filter, e.g. after a bulk load.  Checks go to the
+	 * database until build() is called again.
+	 */
+	public void invalidate() {
+		this._filters.clear();
+		this._ready.clear();
+	}
+}
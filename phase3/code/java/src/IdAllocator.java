@@ -0,0 +1,126 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class hands out new primary keys for the integer-keyed shop tables
+ * using the hi/lo scheme.  Each table has a PostgreSQL sequence named
+ * <table>_<column>_hilo; one nextval() reserves a whole block of ids
+ * (mechanicshop.idBlockSize, 50 by default) for this process, and the ids in
+ * the block are then handed out from memory with an atomic counter.  Because
+ * blocks come from a sequence, concurrent sessions and processes never get
+ * the same id.
+ *
+ * The first time a table is used its sequence is created if missing and moved
+ * past the largest id already in the table.
+ *
+ */
+
+public class IdAllocator {
+	private final ConnectionPool _pool;
+	private final int _blockSize;
+	private final ConcurrentHashMap<String, Block> _blocks = new ConcurrentHashMap<String, Block>();
+
+	//a reserved range of ids [next, end)
+	private static final class Block {
+		final AtomicLong next;
+		final long end;
+
+		Block(long start, long end) {
+			this.next = new AtomicLong(start);
+			this.end = end;
+		}
+	}
+
+	public IdAllocator(ConnectionPool pool) {
+		this._pool = pool;
+		this._blockSize = Integer.getInteger("mechanicshop.idBlockSize", 50);
+		if (this._blockSize <= 0) {
+			throw new IllegalArgumentException("mechanicshop.idBlockSize must be positive");
+		}
+	}
+
+	/**
+	 * Method to obtain a new, unused primary key for a table.  Only reaches
+	 * the database when the current block for the table is used up.
+	 *
+	 * @param table one of Customer, Mechanic, Owns, Service_Request, Closed_Request
+	 * @return the new id
+	 * @throws java.sql.SQLException when a new block could not be reserved
+	 */
+	public int next(String table) throws SQLException {
+		String[] pk = MechanicShop.primaryKey(table);
+		if (!"integer".equals(pk[2])) {
+			throw new IllegalArgumentException(pk[0] + " does not have an integer key");
+		}
+
+		while (true) {
+			Block block = this._blocks.get(pk[0]);
+			if (block != null) {
+				long id = block.next.getAndIncrement();
+				if (id < block.end) {
+					return (int) id;
+				}
+			}
+
+			synchronized (this) {
+				// another thread may have refilled the block while we waited
+				if (this._blocks.get(pk[0]) == block) {
+					this._blocks.put(pk[0], reserve(pk));
+				}
+			}
+		}
+	}//end next
+
+	private Block reserve(String[] pk) throws SQLException {
+		String sequence = (pk[0] + "_" + pk[1] + "_hilo").toLowerCase();
+		PooledConnection pc = this._pool.borrow();
+		try {
+			if (!this._blocks.containsKey(pk[0])) {
+				initSequence(pc, sequence, pk);
+			}
+
+			PreparedStatement stmt = pc.prepare("SELECT nextval(CAST(? AS regclass))");
+			stmt.setString(1, sequence);
+			ResultSet rs = stmt.executeQuery();
+			Metrics.roundTrips(1);
+			rs.next();
+			long hi = rs.getLong(1);
+			rs.close();
+
+			long start = hi * this._blockSize;
+			long end = start + this._blockSize;
+			if (end - 1 > Integer.MAX_VALUE) {
+				throw new SQLException("Ran out of ids for " + pk[0] + "." + pk[1]);
+			}
+			return new Block(start, end);
+		} catch (SQLException e) {
+			pc.checkBroken(e);
+			throw e;
+		} finally {
+			this._pool.release(pc);
+		}
+	}//end reserve
+
+	/**
+	 * Method to create the hi sequence of a table if needed and move it past
+	 * the ids already in the table.  The sequence is only ever moved forward,
+	 * so blocks already handed to other sessions are never reused.
+	 */
+	private void initSequence(PooledConnection pc, String sequence, String[] pk) throws SQLException {
+		Statement stmt = pc.getConnection().createStatement();
+		try {
+			stmt.executeUpdate("CREATE SEQUENCE IF NOT EXISTS " + sequence + " MINVALUE 0 START 0");
+			stmt.executeQuery(
+				"SELECT setval('" + sequence + "', H.hi, false) " +
+				"FROM (SELECT COALESCE(MAX(" + pk[1] + ") / " + this._blockSize + " + 1, 0) AS hi FROM " + pk[0] + ") AS H, " + sequence + " S " +
+				"WHERE S.last_value + (CASE WHEN S.is_called THEN 1 ELSE 0 END) < H.hi").close();
+			Metrics.roundTrips(2);
+		} finally {
+			stmt.close();
+		}
+	}//end initSequence
+}
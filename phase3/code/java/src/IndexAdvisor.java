@@ -0,0 +1,326 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class looks for the indexes the shop's workload is missing.  advise()
+ * runs EXPLAIN on every statement shape a WorkloadRecorder saw, replaying the
+ * parameters of its latest run, and proposes an index for each column a
+ * sequential scan filters on that no index leads with.  A filter on a
+ * constant in a statement without parameters (such as report 6) gets a
+ * partial index.  Indexes that only repeat a primary key are proposed for
+ * dropping.  The proposals are written as a migration file with
+ * SchemaMigrations.write(), to be reviewed and applied by migrate().
+ *
+ * migrate() applies the pending SchemaMigrations and times a fixed set of
+ * probe statements, the lookups and reports the menu runs, before and after,
+ * printing the scans each plan uses so the effect of every change is visible.
+ *
+ */
+
+public class IndexAdvisor {
+	//a scan node of a text EXPLAIN plan
+	private static final Pattern SCAN = Pattern.compile("(Seq Scan|Index Scan|Index Only Scan|Bitmap Heap Scan)(?: Backward)?(?: using (\\w+))? on (\\w+)");
+	//a column compared in a filter: "(lname = ...)", "((lname)::text = ...)", "(c.year < 1995)"
+	private static final Pattern COMPARED = Pattern.compile("\\(+(?:\\w+\\.)?(\\w+)\\)?(?:::[\\w ]+)?\\s*(=|<>|<=|>=|<|>)\\s*[^()]+?\\)");
+
+	/**
+	 * A statement timed by migrate(), with the query giving its parameter.
+	 */
+	private static final class Probe {
+		final String label;
+		final String sql;
+		final String sampleQuery;
+
+		Probe(String label, String sql, String sampleQuery) {
+			this.label = label;
+			this.sql = sql;
+			this.sampleQuery = sampleQuery;
+		}
+	}
+
+	private static final Probe[] PROBES = {
+		new Probe("cars of a customer", "SELECT * FROM Car C WHERE C.vin IN (SELECT car_vin FROM Owns WHERE customer_id = ?)", "SELECT customer_id FROM Owns LIMIT 1"),
+		new Probe("requests of a car", "SELECT rid, date FROM Service_Request WHERE car_vin = ?", "SELECT car_vin FROM Service_Request LIMIT 1"),
+		new Probe("closing of a request", "SELECT wid FROM Closed_Request WHERE rid = ?", "SELECT rid FROM Closed_Request LIMIT 1"),
+		new Probe("report 6", ShopOperations.reportQuery(6), null),
+		new Probe("report 7", ShopOperations.reportQuery(7), null),
+		new Probe("report 8", ShopOperations.reportQuery(8), null),
+		new Probe("report 9 (k=10)", ShopOperations.reportQuery(9), "SELECT 10"),
+		new Probe("report 10", ShopOperations.reportQuery(10), null)
+	};
+	//runs timed per probe, after one untimed run
+	private static final int RUNS = 5;
+
+	private final MechanicShop _esql;
+
+	public IndexAdvisor(MechanicShop esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to explain every recorded statement and print the indexes to
+	 * create or drop.
+	 *
+	 * @param recorder the statements to explain
+	 * @return the proposed CREATE INDEX and DROP INDEX statements
+	 * @throws java.sql.SQLException when failed to read the catalog
+	 */
+	public List<String> advise(WorkloadRecorder recorder) throws SQLException {
+		Set<String> indexed = leadingColumns();
+		Set<String> proposals = new LinkedHashSet<String>();
+		System.out.println("===================================================");
+		System.out.println(" INDEX ADVICE");
+		System.out.println("===================================================");
+		for (WorkloadRecorder.Shape shape : recorder.shapes()) {
+			if (!explainable(shape.getSql())) {
+				continue;
+			}
+			Object[] params = shape.sample;
+			List<String> plan;
+			try {
+				plan = explain(shape.getSql(), params);
+			} catch (SQLException e) {
+				System.out.println("Could not explain " + shape.getSql() + ": " + e.getMessage());
+				continue;
+			}
+			System.out.printf("%8d x %s%n         %s%n", shape.getCount(), shape.getSql(), scans(plan));
+			proposals.addAll(propose(plan, indexed, params.length == 0));
+		}
+
+		ResultTable redundant = this._esql.executeQueryAndReturnTable(
+			"SELECT CAST(I.indexrelid AS regclass) AS name, CAST(I.indrelid AS regclass) AS tbl FROM pg_index I, pg_index P " +
+			"WHERE P.indrelid = I.indrelid AND P.indisprimary AND NOT I.indisprimary AND I.indpred IS NULL " +
+			"AND CAST(P.indkey AS text) = CAST(I.indkey AS text)");
+		for (int i = 0; i < redundant.size(); ++i) {
+			proposals.add("DROP INDEX " + redundant.getString(i, "name") + "; -- repeats the primary key of " + redundant.getString(i, "tbl"));
+		}
+
+		System.out.println("---------------------------------------------------");
+		if (proposals.isEmpty()) {
+			System.out.println("No index changes proposed");
+		}
+		for (String p : proposals) {
+			System.out.println(p);
+		}
+		System.out.println("===================================================");
+		return new ArrayList<String>(proposals);
+	}//end advise
+
+	/**
+	 * Method to find the filtered sequential scans of a plan and propose an
+	 * index for each column they filter on.
+	 *
+	 * @param plan the lines of a text EXPLAIN
+	 * @param indexed "table.column" of every column an index leads with
+	 * @param constant true when the statement has no parameters, so its
+	 *        filters can become the predicate of a partial index
+	 * @return CREATE INDEX statements
+	 */
+	static List<String> propose(List<String> plan, Set<String> indexed, boolean constant) {
+		List<String> proposals = new ArrayList<String>();
+		for (int i = 0; i < plan.size(); ++i) {
+			Matcher scan = SCAN.matcher(plan.get(i));
+			if (!scan.find() || !scan.group(1).equals("Seq Scan")) {
+				continue;
+			}
+			String table = scan.group(3).toLowerCase(Locale.ROOT);
+			int indent = indentOf(plan.get(i));
+			// the details of a node are indented deeper and are not nodes themselves
+			for (int j = i + 1; j < plan.size() && indentOf(plan.get(j)) > indent && !plan.get(j).contains("->"); ++j) {
+				String line = plan.get(j).trim();
+				if (!line.startsWith("Filter:")) {
+					continue;
+				}
+				String filter = line.substring("Filter:".length()).trim();
+				Matcher column = COMPARED.matcher(filter);
+				int comparisons = 0;
+				String first = null;
+				while (column.find()) {
+					++comparisons;
+					String name = column.group(1).toLowerCase(Locale.ROOT);
+					if (first == null && !indexed.contains(table + "." + name)) {
+						first = name;
+					}
+				}
+				if (first == null) {
+					continue;
+				}
+				if (constant && comparisons == 1) {
+					proposals.add("CREATE INDEX ON " + table + " (" + first + ") WHERE " + filter + ";");
+				} else {
+					proposals.add("CREATE INDEX ON " + table + " (" + first + ");");
+				}
+			}
+		}
+		return proposals;
+	}//end propose
+
+	/**
+	 * Method to apply the pending migrations, timing the probe statements
+	 * before and after.
+	 *
+	 * @param migrations the migrations to apply
+	 * @return the number of migrations applied
+	 * @throws java.sql.SQLException when a probe or a migration failed
+	 */
+	public int migrate(SchemaMigrations migrations) throws SQLException {
+		if (migrations.pending() == 0) {
+			System.out.println("The schema is up to date");
+			return 0;
+		}
+		List<Object[]> params = new ArrayList<Object[]>();
+		for (Probe p : PROBES) {
+			params.add(sampleParams(p));
+		}
+
+		String[][] before = measure(params);
+		int applied = migrations.migrate();
+		String[][] after = measure(params);
+
+		System.out.println("===================================================");
+		System.out.println(" BEFORE / AFTER MIGRATING (median of " + RUNS + " runs)");
+		System.out.println("===================================================");
+		System.out.printf("%-22s %10s %10s%n", "statement", "before ms", "after ms");
+		for (int i = 0; i < PROBES.length; ++i) {
+			if (before[i] == null) {
+				continue;
+			}
+			System.out.printf("%-22s %10s %10s%n", PROBES[i].label, before[i][0], after[i][0]);
+			System.out.println("    before: " + before[i][1]);
+			System.out.println("    after:  " + after[i][1]);
+		}
+		System.out.println("===================================================");
+		return applied;
+	}//end migrate
+
+	//null when the tables hold no row to take the parameter from
+	private Object[] sampleParams(Probe p) throws SQLException {
+		if (p.sampleQuery == null) {
+			return new Object[0];
+		}
+		List<List<String>> rows = this._esql.executeQueryAndReturnResult(p.sampleQuery);
+		if (rows.isEmpty()) {
+			return null;
+		}
+		String value = rows.get(0).get(0);
+		try {
+			return new Object[] { Integer.parseInt(value) };
+		} catch (NumberFormatException e) {
+			return new Object[] { value };
+		}
+	}
+
+	/**
+	 * @return per probe the median time in ms and the scans its plan uses,
+	 *         or null for probes without parameters
+	 */
+	private String[][] measure(List<Object[]> params) throws SQLException {
+		String[][] results = new String[PROBES.length][];
+		RowHandler ignore = new RowHandler() {
+			public void handleRow(ResultSet rs) {
+			}
+		};
+		for (int i = 0; i < PROBES.length; ++i) {
+			if (params.get(i) == null) {
+				continue;
+			}
+			String scans = scans(explain(PROBES[i].sql, params.get(i)));
+			this._esql.executeQueryStreaming(PROBES[i].sql, ignore, params.get(i));
+			long[] nanos = new long[RUNS];
+			for (int r = 0; r < RUNS; ++r) {
+				long start = System.nanoTime();
+				this._esql.executeQueryStreaming(PROBES[i].sql, ignore, params.get(i));
+				nanos[r] = System.nanoTime() - start;
+			}
+			Arrays.sort(nanos);
+			results[i] = new String[] { String.format("%.3f", nanos[RUNS / 2] / 1e6), scans };
+		}
+		return results;
+	}//end measure
+
+	/**
+	 * Method to obtain the plan of a statement with the given parameters.
+	 * The statement is not run.
+	 *
+	 * @return the lines of the text plan
+	 */
+	List<String> explain(String sql, Object[] params) throws SQLException {
+		ConnectionPool pool = this._esql.getPool();
+		PooledConnection pc = pool.borrow();
+		try {
+			// not taken from the statement cache, it is only needed once
+			PreparedStatement stmt = pc.getConnection().prepareStatement("EXPLAIN " + sql);
+			try {
+				for (int i = 0; i < params.length; ++i) {
+					stmt.setObject(i + 1, params[i]);
+				}
+				List<String> plan = new ArrayList<String>();
+				ResultSet rs = stmt.executeQuery();
+				while (rs.next()) {
+					plan.add(rs.getString(1));
+				}
+				rs.close();
+				return plan;
+			} finally {
+				stmt.close();
+			}
+		} catch (SQLException e) {
+			pc.checkBroken(e);
+			throw e;
+		} finally {
+			pool.release(pc);
+		}
+	}//end explain
+
+	//"table.column" of the first column of every index
+	private Set<String> leadingColumns() throws SQLException {
+		ResultTable columns = this._esql.executeQueryAndReturnTable(
+			"SELECT C.relname, A.attname FROM pg_index I, pg_class C, pg_attribute A " +
+			"WHERE C.oid = I.indrelid AND A.attrelid = I.indrelid AND A.attnum = I.indkey[0]");
+		Set<String> indexed = new HashSet<String>();
+		for (int i = 0; i < columns.size(); ++i) {
+			indexed.add(columns.getString(i, "relname").toLowerCase(Locale.ROOT) + "." + columns.getString(i, "attname").toLowerCase(Locale.ROOT));
+		}
+		return indexed;
+	}
+
+	//only the statements that read the shop tables are worth explaining
+	private static boolean explainable(String sql) {
+		String s = sql.trim().toUpperCase(Locale.ROOT);
+		return (s.startsWith("SELECT") || s.startsWith("UPDATE") || s.startsWith("DELETE"))
+			&& !s.contains("PG_") && !s.contains("NEXTVAL") && !s.contains("CURRVAL") && !s.contains("SETVAL");
+	}
+
+	//the scan nodes of a plan, e.g. "Index Scan using customer_lname on customer"
+	private static String scans(List<String> plan) {
+		StringBuilder out = new StringBuilder();
+		for (String line : plan) {
+			Matcher m = SCAN.matcher(line);
+			if (m.find()) {
+				if (out.length() > 0) {
+					out.append(", ");
+				}
+				out.append(m.group());
+			}
+		}
+		return out.length() == 0 ? "(no table scans)" : out.toString();
+	}
+
+	private static int indentOf(String line) {
+		int i = 0;
+		while (i < line.length() && line.charAt(i) == ' ') {
+			++i;
+		}
+		return i;
+	}
+}
@@ -0,0 +1,99 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts latencies in log-linear buckets, the way HDR histograms
+ * do: every power of two is split into 32 equal buckets, so any recorded
+ * value is known to within about 3% while the whole range from 1 ns to
+ * years fits in under 2000 counters.  Recording is lock free and does not
+ * allocate; percentiles are computed from a pass over the counters.
+ *
+ */
+
+public class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	//values below this are counted exactly, one bucket each
+	private static final int LINEAR = 2 * SUB_COUNT;
+	private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * SUB_COUNT;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder _count = new LongAdder();
+	private final LongAdder _sum = new LongAdder();
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Method to count one value.
+	 *
+	 * @param nanos the latency, negative values count as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		this._counts.incrementAndGet(bucket(value));
+		this._count.increment();
+		this._sum.add(value);
+		long max = this._max.get();
+		while (value > max && !this._max.compareAndSet(max, value)) {
+			max = this._max.get();
+		}
+	}
+
+	public long getCount() {
+		return this._count.sum();
+	}
+
+	public long getMax() {
+		return this._max.get();
+	}
+
+	public double getMean() {
+		long count = this._count.sum();
+		return count == 0 ? 0 : (double) this._sum.sum() / count;
+	}
+
+	/**
+	 * @param p the percentile as a fraction, e.g. 0.99
+	 * @return the highest value of the bucket holding that percentile, 0
+	 *         when nothing was recorded
+	 */
+	public long percentile(double p) {
+		long total = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; ++i) {
+			counts[i] = this._counts.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(p * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highest(i), this._max.get());
+			}
+		}
+		return this._max.get();
+	}//end percentile
+
+	static int bucket(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		// the top SUB_BITS + 1 bits of the value, from SUB_COUNT to 2 * SUB_COUNT - 1
+		int sub = (int) (value >>> shift);
+		return LINEAR + (shift - 1) * SUB_COUNT + (sub - SUB_COUNT);
+	}
+
+	static long highest(int bucket) {
+		if (bucket < LINEAR) {
+			return bucket;
+		}
+		int shift = (bucket - LINEAR) / SUB_COUNT + 1;
+		long sub = (bucket - LINEAR) % SUB_COUNT + SUB_COUNT;
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -11,9 +11,9 @@
  */
 
 
-import java.sql.DriverManager;
+import java.sql.Array;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -21,7 +21,17 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.ArrayList;
 import java.util.Random;
 import java.util.Scanner;
@@ -30,6 +40,9 @@ import java.text.SimpleDateFormat;
 import java.util.Date;  
 import java.util.Calendar;  
 import java.text.ParseException;
+import java.time.LocalDate;
+
+import org.postgresql.PGConnection;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -38,9 +51,55 @@ import java.text.ParseException;
  */
 
 public class MechanicShop{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections shared by the helpers below
+	private ConnectionPool _pool = null;
+	//rows fetched per round trip by executeQueryStreaming
+	private int _fetchSize = Integer.getInteger("mechanicshop.fetchSize", 1000);
+	//settings of the table printed by executeQueryAndPrintResult
+	private int _printSample = Integer.getInteger("mechanicshop.print.sample", 200);
+	private int _printLimit = Integer.getInteger("mechanicshop.print.limit", 0);
+	private int _pageSize = 0;
+	//results of the reports 6 to 10, dropped when a table they read is written to
+	private final ReportCache _reports = new ReportCache (
+		Integer.getInteger("mechanicshop.reportCache.size", 64),
+		Long.getLong("mechanicshop.reportCache.ttlMs", 60000L),
+		Integer.getInteger("mechanicshop.reportCache.maxRows", 10000));
+	//live service request counts per car behind report 9
+	private final ServiceCountIndex _serviceCounts = new ServiceCountIndex (this);
+	//customers by last name, for the lookups in AddCar and InsertServiceRequest
+	private final CustomerNameIndex _customerNames = new CustomerNameIndex (this);
+	//Bloom filters that answer most existence checks without a round trip
+	private final ExistenceFilters _existence = new ExistenceFilters (this);
+	//rows read or written recently, by primary key
+	private final int _entityCacheSize = Integer.getInteger("mechanicshop.entityCache.size", 1024);
+	private final EntityCache<Object, ResultTable> _customers = new EntityCache<Object, ResultTable> ("customers", this._entityCacheSize);
+	private final EntityCache<Object, ResultTable> _mechanics = new EntityCache<Object, ResultTable> ("mechanics", this._entityCacheSize);
+	private final EntityCache<Object, ResultTable> _cars = new EntityCache<Object, ResultTable> ("cars", this._entityCacheSize);
+	//the cars of each customer, by customer id; expires so cars registered by other clients show up
+	private final EntityCache<Integer, ResultTable> _ownedCars = new EntityCache<Integer, ResultTable> ("owned cars", this._entityCacheSize,
+		Long.getLong("mechanicshop.entityCache.ownedCarsTtlMs", 60000L));
+	//call counts, latencies and round trips of the menu options and the helpers below
+	private final Metrics _metrics = new Metrics ();
+	//hands out primary keys from blocks reserved through sequences
+	private IdAllocator _ids = null;
+	//statements slower than a threshold, with their plans
+	private SlowStatementLog _slowLog = null;
+	//runs the *Async helpers and background work such as building the key filters, one (virtual) thread per task
+	private final ExecutorService _async = VirtualThreads.newPerTaskExecutor("mechanicshop-async");
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	//the columns read into the entity caches, in order
+	static final String CUSTOMER_COLUMNS = "id, fname, lname, phone, address";
+	static final String MECHANIC_COLUMNS = "id, fname, lname, experience";
+	static final String CAR_COLUMNS = "vin, make, model, year";
+	//table name, primary key column and its SQL type, for the key probes
+	private static final String[][] PRIMARY_KEYS = {
+		{"Customer", "id", "integer"},
+		{"Mechanic", "id", "integer"},
+		{"Car", "vin", "varchar"},
+		{"Owns", "ownership_id", "integer"},
+		{"Service_Request", "rid", "integer"},
+		{"Closed_Request", "wid", "integer"}
+	};
 	
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
 		System.out.print("Connecting to database...");
@@ -48,9 +107,20 @@ public class MechanicShop{
 			// constructs the connection URL
 			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
 			System.out.println ("Connection URL: " + url + "\n");
-			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+
+			Properties info = new Properties();
+			info.setProperty("user", user);
+			info.setProperty("password", passwd);
+			// switch a reused statement to a named server-side one after this many runs
+			info.setProperty("prepareThreshold", System.getProperty("mechanicshop.prepareThreshold", "3"));
+			// let the driver send batched inserts as multi-row INSERT statements
+			info.setProperty("reWriteBatchedInserts", "true");
+			this._pool = new ConnectionPool(url, info);
+			this._ids = new IdAllocator(this._pool);
+			this._slowLog = new SlowStatementLog(this._pool);
+
+			// obtain a physical connection up front so a bad URL fails here
+			this._pool.release(this._pool.borrow());
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -63,18 +133,31 @@ public class MechanicShop{
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string, with a ? placeholder for each parameter
+	 * @param params the values bound to the placeholders, in order
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
-
-		// close the instruction
-	    stmt.close ();
+	public void executeUpdate (String sql, Object... params) throws SQLException { 
+		PooledConnection pc = this._pool.borrow();
+		Metrics.Scope scope = this._metrics.start ("jdbc.executeUpdate");
+		try {
+			// obtains the cached statement object and binds the parameters
+			PreparedStatement stmt = prepare (pc, sql, params);
+
+			// issues the update instruction
+			long start = System.nanoTime ();
+			int rows = stmt.executeUpdate ();
+			Metrics.roundTrips (1);
+			this._slowLog.record (sql, params, System.nanoTime () - start, rows);
+			this._reports.invalidateFor (sql);
+		} catch (SQLException e) {
+			scope.failed ();
+			pc.checkBroken(e);
+			throw e;
+		} finally {
+			this._pool.release(pc);
+			scope.close ();
+		}
 	}//end executeUpdate
 
 	/**
@@ -82,168 +165,792 @@ public class MechanicShop{
 	 * method issues the query to the DBMS and outputs the results to
 	 * standard out.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with a ? placeholder for each parameter
+	 * @param params the values bound to the placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		return executeQueryAndPrintResult (query, null, params);
+	}
+
+	/**
+	 * Method to print a query like executeQueryAndPrintResult and also hand
+	 * every fetched row to a second callback, e.g. to keep a copy of a small
+	 * result.  With a print limit the query stops one row past the limit.
+	 * 
+	 * @param copy the callback that also sees every row, or null
+	 * @return the number of rows printed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	int executeQueryAndPrintResult (String query, final RowHandler copy, Object... params) throws SQLException {
+		//streams the rows through a cursor into a buffered, aligned table on standard out.
+		final TableRenderer renderer = new TableRenderer (this._printSample, this._printLimit, this._pageSize, in);
+		RowHandler handler = renderer;
+		if (copy != null) {
+			handler = new RowHandler () {
+				public void handleRow (ResultSet rs) throws SQLException {
+					renderer.handleRow (rs);
+					copy.handleRow (rs);
+				}
+			};
+		}
+		System.out.flush ();
+		try {
+			// one row past the limit tells the renderer there was more
+			streamQuery ("jdbc.executeQueryAndPrintResult", query, handler, this._printLimit > 0 ? this._printLimit + 1 : 0, params);
+		} finally {
+			renderer.finish ();
+		}
+		return renderer.getRowCount ();
+	}//end executeQueryAndPrintResult
+
+	/**
+	 * Method to print a result that was already read, the same way
+	 * executeQueryAndPrintResult prints a query.
+	 * 
+	 * @param table the rows to print
+	 * @return the number of rows printed
+	 */
+	public int printTable (ResultTable table) {
+		TableRenderer renderer = new TableRenderer (this._printSample, this._printLimit, this._pageSize, in);
+		System.out.flush ();
+		renderer.print (table);
+		return renderer.getRowCount ();
+	}
+
+	/**
+	 * @return the number of rows executeQueryAndPrintResult prints at most, 0 for no limit
+	 */
+	public int getPrintLimit () {
+		return this._printLimit;
+	}
+
+	/**
+	 * Method to change how executeQueryAndPrintResult prints.
+	 * 
+	 * @param limit the number of rows printed at most, 0 for no limit
+	 * @param pageSize the number of rows after which to wait for Enter, 0 to never wait
+	 */
+	public void setPrintOptions (int limit, int pageSize) {
+		if (limit < 0 || pageSize < 0) {
+			throw new IllegalArgumentException("limit and page size cannot be negative");
+		}
+		this._printLimit = limit;
+		this._pageSize = pageSize;
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and hand
+	 * each row to a callback as it arrives.  The query runs inside a short
+	 * transaction so the driver uses a server-side cursor and only fetches
+	 * the configured number of rows per round trip; memory use stays the
+	 * same no matter how many rows the query returns.
+	 * 
+	 * @param query the input query string, with a ? placeholder for each parameter
+	 * @param handler the callback invoked once per row
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryStreaming (String query, RowHandler handler, Object... params) throws SQLException {
+		return streamQuery ("jdbc.executeQueryStreaming", query, handler, 0, params);
+	}//end executeQueryStreaming
+
+	private int streamQuery (String operation, String query, RowHandler handler, int maxRows, Object... params) throws SQLException {
+		PooledConnection pc = this._pool.borrow();
+		Metrics.Scope scope = this._metrics.start (operation);
+		Connection conn = pc.getConnection();
+		try {
+			// cursors are only used outside of autocommit mode
+			conn.setAutoCommit (false);
+
+			PreparedStatement stmt = prepare (pc, query, params);
+			stmt.setFetchSize (this._fetchSize);
+			stmt.setMaxRows (maxRows);
+			int rowCount = 0;
+			try {
+				long start = System.nanoTime ();
+				ResultSet rs = stmt.executeQuery ();
+				Metrics.roundTrips (1);
+				// the rows are handed out as they arrive, so only the first fetch is the statement's own time
+				long firstFetch = System.nanoTime () - start;
+				while (rs.next()){
+					handler.handleRow (rs);
+					++rowCount;
+				}//end while
+				rs.close ();
+				this._slowLog.record (query, params, firstFetch, rowCount);
+				// every fetch after the first is one more round trip
+				Metrics.roundTrips (this._fetchSize > 0 ? rowCount / this._fetchSize : 0);
+			} finally {
+				// the statement is cached, leave it as it was
+				stmt.setFetchSize (0);
+				stmt.setMaxRows (0);
 			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+
+			conn.commit ();
+			Metrics.roundTrips (1);
+			conn.setAutoCommit (true);
+			return rowCount;
+		} catch (SQLException e) {
+			scope.failed ();
+			pc.checkBroken(e);
+			throw e;
+		} finally {
+			this._pool.release(pc);
+			scope.close ();
+		}
+	}//end streamQuery
+
+	/**
+	 * Method to run COPY (query) TO STDOUT and write its output to a stream
+	 * as it arrives, without decoding any rows.  COPY takes no parameters,
+	 * so any values must already be inlined in the query.
+	 * 
+	 * @param query the input query string, without placeholders
+	 * @param format the COPY options, e.g. "CSV HEADER"
+	 * @param out where the COPY output is written
+	 * @return the number of rows copied
+	 * @throws java.sql.SQLException when failed to execute the query
+	 * @throws java.io.IOException when failed to write the output
+	 */
+	public long executeCopyOut (String query, String format, OutputStream out) throws SQLException, IOException {
+		PooledConnection pc = this._pool.borrow();
+		Metrics.Scope scope = this._metrics.start ("jdbc.executeCopyOut");
+		try {
+			Metrics.roundTrips (1);
+			String copy = "COPY (" + query + ") TO STDOUT WITH " + format;
+			long start = System.nanoTime ();
+			long rows = pc.getConnection ().unwrap (PGConnection.class).getCopyAPI ().copyOut (copy, out);
+			this._slowLog.record (copy, new Object[0], System.nanoTime () - start, rows);
+			return rows;
+		} catch (SQLException e) {
+			scope.failed ();
+			pc.checkBroken(e);
+			throw e;
+		} finally {
+			this._pool.release(pc);
+			scope.close ();
+		}
+	}//end executeCopyOut
+
+	/**
+	 * @return the connection pool behind this instance, for tools such as
+	 *         the bulk loader that need the driver's own APIs
+	 */
+	ConnectionPool getPool () {
+		return this._pool;
 	}
-	
+
+	/**
+	 * Method to change how many rows executeQueryStreaming fetches per
+	 * round trip.
+	 * 
+	 * @param fetchSize the number of rows per fetch, must be positive
+	 */
+	public void setFetchSize (int fetchSize) {
+		if (fetchSize <= 0) {
+			throw new IllegalArgumentException("fetch size must be positive");
+		}
+		this._fetchSize = fetchSize;
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the results as
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with a ? placeholder for each parameter
+	 * @param params the values bound to the placeholders, in order
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		PooledConnection pc = this._pool.borrow();
+		Metrics.Scope scope = this._metrics.start ("jdbc.executeQueryAndReturnResult");
+		try {
+			//obtains the cached statement object and binds the parameters
+			PreparedStatement stmt = prepare (pc, query, params); 
+
+			//issues the query instruction 
+			long start = System.nanoTime ();
+			ResultSet rs = stmt.executeQuery (); 
+			Metrics.roundTrips (1);
+
+			/*
+			 * obtains the metadata object for the returned result set.  The metadata 
+			 * contains row and column info. 
+			*/ 
+			ResultSetMetaData rsmd = rs.getMetaData (); 
+			int numCol = rsmd.getColumnCount (); 
+
+			//iterates through the result set and saves the data returned by the query. 
+			List<List<String>> result  = new ArrayList<List<String>>(); 
+			while (rs.next()){
+				List<String> record = new ArrayList<String>(); 
+				for (int i=1; i<=numCol; ++i) 
+					record.add(rs.getString (i)); 
+				result.add(record); 
+			}//end while 
+			rs.close (); 
+			this._slowLog.record (query, params, System.nanoTime () - start, result.size ());
+			return result; 
+		} catch (SQLException e) {
+			scope.failed ();
+			pc.checkBroken(e);
+			throw e;
+		} finally {
+			this._pool.release(pc);
+			scope.close ();
+		}
 	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the results as a
+	 * ResultTable, with each column decoded once into its native type.
+	 * 
+	 * @param query the input query string, with a ? placeholder for each parameter
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result, column by column
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ResultTable executeQueryAndReturnTable (String query, Object... params) throws SQLException {
+		PooledConnection pc = this._pool.borrow();
+		Metrics.Scope scope = this._metrics.start ("jdbc.executeQueryAndReturnTable");
+		try {
+			//obtains the cached statement object and binds the parameters
+			PreparedStatement stmt = prepare (pc, query, params);
+
+			//issues the query instruction and decodes the rows
+			long start = System.nanoTime ();
+			ResultSet rs = stmt.executeQuery ();
+			Metrics.roundTrips (1);
+			ResultTable result = ResultTable.read (rs);
+			rs.close ();
+			this._slowLog.record (query, params, System.nanoTime () - start, result.size ());
+			return result;
+		} catch (SQLException e) {
+			scope.failed ();
+			pc.checkBroken(e);
+			throw e;
+		} finally {
+			this._pool.release(pc);
+			scope.close ();
+		}
+	}//end executeQueryAndReturnTable
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the number of results
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with a ? placeholder for each parameter
+	 * @param params the values bound to the placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQuery (String query, Object... params) throws SQLException {
+		PooledConnection pc = this._pool.borrow();
+		Metrics.Scope scope = this._metrics.start ("jdbc.executeQuery");
+		try {
+			//obtains the cached statement object and binds the parameters
+			PreparedStatement stmt = prepare (pc, query, params);
+
+			//issues the query instruction
+			long start = System.nanoTime ();
+			ResultSet rs = stmt.executeQuery ();
+			Metrics.roundTrips (1);
+
+			int rowCount = 0;
+
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rowCount++;
+			}//end while
+			rs.close ();
+			this._slowLog.record (query, params, System.nanoTime () - start, rowCount);
+			return rowCount;
+		} catch (SQLException e) {
+			scope.failed ();
+			pc.checkBroken(e);
+			throw e;
+		} finally {
+			this._pool.release(pc);
+			scope.close ();
+		}
+	}
+	
+	/**
+	 * Method to check whether a row with the given primary key exists.  Only
+	 * the key is probed; no row data is sent back.  A row already in the
+	 * entity cache answers without a query, but a probe never fills it.
+	 * 
+	 * @param table one of the shop tables (Customer, Mechanic, Car, Owns,
+	 *        Service_Request, Closed_Request)
+	 * @param key the primary key value, an Integer or for Car a VIN string
+	 * @return true if the row exists
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean exists (String table, Object key) throws SQLException {
+		if (!this._existence.mightExist (table, key)) {
+			// the filter has never seen the key, no need to ask
+			return false;
+		}
+		EntityCache<Object, ResultTable> cache = entityCache (table);
+		if (cache != null && cache.contains (key)) {
+			return true;
+		}
+		String[] pk = primaryKey (table);
+		PooledConnection pc = this._pool.borrow();
+		Metrics.Scope scope = this._metrics.start ("jdbc.exists");
+		try {
+			String sql = "SELECT EXISTS (SELECT 1 FROM " + pk[0] + " WHERE " + pk[1] + " = ?)";
+			Object[] params = new Object[] { key };
+			PreparedStatement stmt = prepare (pc, sql, params);
+			long start = System.nanoTime ();
+			ResultSet rs = stmt.executeQuery ();
+			Metrics.roundTrips (1);
+			boolean found = rs.next() && rs.getBoolean(1);
+			rs.close ();
+			this._slowLog.record (sql, params, System.nanoTime () - start, 1);
+			return found;
+		} catch (SQLException e) {
+			scope.failed ();
+			pc.checkBroken(e);
+			throw e;
+		} finally {
+			this._pool.release(pc);
+			scope.close ();
+		}
+	}//end exists
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	/**
+	 * Method to check many primary keys of one table in a single round trip,
+	 * using a = ANY(array) probe.
+	 * 
+	 * @param table one of the shop tables
+	 * @param keys the primary key values to look for
+	 * @return for each key, in order, whether a row with that key exists
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean[] existsMany (String table, List<?> keys) throws SQLException {
+		boolean[] found = new boolean[keys.size()];
+		// only the keys the filter might have seen are sent
+		List<Object> probed = new ArrayList<Object>();
+		for (Object key : keys) {
+			if (this._existence.mightExist (table, key)) {
+				probed.add(key);
+			}
+		}
+		if (probed.isEmpty()) {
+			return found;
+		}
 
-		int rowCount = 0;
+		String[] pk = primaryKey (table);
+		PooledConnection pc = this._pool.borrow();
+		Metrics.Scope scope = this._metrics.start ("jdbc.existsMany");
+		try {
+			Array array = pc.getConnection().createArrayOf (pk[2], probed.toArray());
+			String sql = "SELECT " + pk[1] + " FROM " + pk[0] + " WHERE " + pk[1] + " = ANY (?)";
+			Object[] params = new Object[] { array };
+			PreparedStatement stmt = prepare (pc, sql, params);
+			long start = System.nanoTime ();
+			ResultSet rs = stmt.executeQuery ();
+			Metrics.roundTrips (1);
+			Set<Object> present = new HashSet<Object>();
+			while (rs.next()) {
+				present.add(rs.getObject(1));
+			}
+			rs.close ();
+			// before the array is freed, a logged statement copies its values
+			this._slowLog.record (sql, params, System.nanoTime () - start, present.size ());
+			array.free ();
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			for (int i = 0; i < found.length; ++i) {
+				found[i] = present.contains(keys.get(i));
+			}
+			return found;
+		} catch (SQLException e) {
+			scope.failed ();
+			pc.checkBroken(e);
+			throw e;
+		} finally {
+			this._pool.release(pc);
+			scope.close ();
+		}
+	}//end existsMany
+
+	/**
+	 * Asynchronous variant of executeUpdate.  The statement runs on its own
+	 * (virtual) thread with a pooled connection; independent calls overlap.
+	 * 
+	 * @param sql the input SQL string, with a ? placeholder for each parameter
+	 * @param params the values bound to the placeholders, in order
+	 * @return a future completed when the update is done
+	 */
+	public CompletableFuture<Void> executeUpdateAsync (final String sql, final Object... params) {
+		return async (new Callable<Void>() {
+			public Void call () throws SQLException {
+				executeUpdate (sql, params);
+				return null;
+			}
+		});
 	}
-	
+
 	/**
-	 * Method to fetch the last value from sequence. This
-	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * Asynchronous variant of executeQueryAndReturnResult.
 	 * 
-	 * @param sequence name of the DB sequence
-	 * @return current value of a sequence
-	 * @throws java.sql.SQLException when failed to execute the query
+	 * @param query the input query string, with a ? placeholder for each parameter
+	 * @param params the values bound to the placeholders, in order
+	 * @return a future holding the query result as a list of records
 	 */
-	
-	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+	public CompletableFuture<List<List<String>>> executeQueryAndReturnResultAsync (final String query, final Object... params) {
+		return async (new Callable<List<List<String>>>() {
+			public List<List<String>> call () throws SQLException {
+				return executeQueryAndReturnResult (query, params);
+			}
+		});
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Asynchronous variant of executeQueryAndReturnTable.
+	 * 
+	 * @param query the input query string, with a ? placeholder for each parameter
+	 * @param params the values bound to the placeholders, in order
+	 * @return a future holding the query result, column by column
 	 */
-	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
-	}//end cleanup
+	public CompletableFuture<ResultTable> executeQueryAndReturnTableAsync (final String query, final Object... params) {
+		return async (new Callable<ResultTable>() {
+			public ResultTable call () throws SQLException {
+				return executeQueryAndReturnTable (query, params);
+			}
+		});
+	}
 
-	public String ID(String table) throws SQLException{
-		Random ran = new Random(55);
-	
-		//generate random number
-		int newID = ran.nextInt() & Integer.MAX_VALUE;				
-	
-		//create SQL statement to seach if new id exists in table
-		String query = "SELECT * FROM " + table + " WHERE ";
-
-		if(table == "Owns"){
-			query += "ownership_";
-		} else if (table == "Service_Request") {
-			query += "r";
-		} else if (table == "Closed_Request") {
-			query += "w";
+	/**
+	 * Asynchronous variant of executeQuery.
+	 * 
+	 * @param query the input query string, with a ? placeholder for each parameter
+	 * @param params the values bound to the placeholders, in order
+	 * @return a future holding the number of rows returned (0 or 1)
+	 */
+	public CompletableFuture<Integer> executeQueryAsync (final String query, final Object... params) {
+		return async (new Callable<Integer>() {
+			public Integer call () throws SQLException {
+				return executeQuery (query, params);
+			}
+		});
+	}
+
+	/**
+	 * Method to run a blocking task on the async executor.  A checked
+	 * exception thrown by the task completes the future exceptionally.
+	 */
+	private <T> CompletableFuture<T> async (final Callable<T> task) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		try {
+			this._async.execute (new Runnable() {
+				public void run () {
+					try {
+						future.complete (task.call ());
+					} catch (Throwable t) {
+						future.completeExceptionally (t);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally (e);
+		}
+		return future;
+	}//end async
+
+	/**
+	 * Method to wait for a future returned by one of the *Async helpers.
+	 * 
+	 * @param future the pending result
+	 * @return its value
+	 * @throws java.sql.SQLException the exception the statement failed with
+	 */
+	static <T> T await (CompletableFuture<T> future) throws SQLException {
+		try {
+			return future.join ();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause ();
+			if (cause instanceof SQLException) throw (SQLException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new SQLException (cause);
 		}
+	}//end await
+
+	/**
+	 * Method to start a batch of write statements that are sent together,
+	 * in one transaction, when the batch is flushed.
+	 * 
+	 * @return a new, empty batch
+	 */
+	public WriteBatch newBatch () {
+		return new WriteBatch (this._pool, this._reports, this._metrics, this._slowLog);
+	}
+
+	/**
+	 * @return the cache of report results, invalidated by every write made
+	 *         through this instance
+	 */
+	ReportCache getReportCache () {
+		return this._reports;
+	}
+
+	/**
+	 * @return the service request counts per car, kept current by the
+	 *         service requests inserted through this instance
+	 */
+	ServiceCountIndex getServiceCounts () {
+		return this._serviceCounts;
+	}
+
+	/**
+	 * @return the customers by last name, kept current by the customers
+	 *         added through this instance
+	 */
+	CustomerNameIndex getCustomerNames () {
+		return this._customerNames;
+	}
+
+	/**
+	 * Method to read a customer, mechanic or car by primary key through the
+	 * entity cache.
+	 * 
+	 * @param table Customer, Mechanic or Car
+	 * @param key the primary key
+	 * @return the row (all the columns of the table), or null if there is none
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ResultTable getEntity (String table, Object key) throws SQLException {
+		EntityCache<Object, ResultTable> cache = entityCache (table);
+		if (cache == null) {
+			throw new IllegalArgumentException ("No entity cache for " + table);
+		}
+		ResultTable row = cache.get (key);
+		if (row == null) {
+			String[] pk = primaryKey (table);
+			row = executeQueryAndReturnTable ("SELECT " + entityColumns (table) + " FROM " + pk[0] + " WHERE " + pk[1] + " = ?", key);
+			if (row.size () == 0) {
+				return null;
+			}
+			cache.put (key, row);
+		}
+		return row;
+	}//end getEntity
+
+	/**
+	 * Method to list the cars a customer owns, through the entity cache.
+	 * Empty lists are not cached, and cached lists expire after a while so
+	 * cars registered by other clients are listed eventually.
+	 * 
+	 * @param customerID the owner
+	 * @return vin, make, model and year of each car, possibly none
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ResultTable getOwnedCars (int customerID) throws SQLException {
+		ResultTable cars = this._ownedCars.get (customerID);
+		if (cars == null) {
+			cars = executeQueryAndReturnTable ("SELECT " + CAR_COLUMNS + " FROM Car C WHERE C.vin IN (SELECT car_vin FROM Owns WHERE customer_id = ?)", customerID);
+			if (cars.size () > 0) {
+				this._ownedCars.put (customerID, cars);
+			}
+		}
+		return cars;
+	}//end getOwnedCars
+
+	/**
+	 * Method to put a row just committed into the entity cache of its table.
+	 * 
+	 * @param table Customer, Mechanic or Car
+	 * @param values the values of the table's columns, in order
+	 */
+	void entityAdded (String table, Object... values) {
+		String[] columns = entityColumns (table).split (", ");
+		int[] types = new int[columns.length];
+		for (int i = 0; i < values.length; ++i) {
+			types[i] = values[i] instanceof Integer ? ResultTable.INT : ResultTable.STRING;
+		}
+		ResultTable row = new ResultTable (columns, types, 1);
+		row.addRow (values);
+		entityCache (table).put (values[0], row);
+	}
+
+	/**
+	 * Method to drop the cached car list of a customer whose cars changed.
+	 */
+	void ownedCarsChanged (int customerID) {
+		this._ownedCars.invalidate (customerID);
+	}
+
+	/**
+	 * Method to drop every cached entity, e.g. after a bulk load.
+	 */
+	void clearEntityCaches () {
+		this._customers.clear ();
+		this._mechanics.clear ();
+		this._cars.clear ();
+		this._ownedCars.clear ();
+	}
+
+	/**
+	 * @return one line of hit and miss counts per entity cache
+	 */
+	public String entityCacheStats () {
+		return this._customers.stats () + "\n" + this._mechanics.stats () + "\n" + this._cars.stats () + "\n" + this._ownedCars.stats ();
+	}
+
+	private EntityCache<Object, ResultTable> entityCache (String table) {
+		if (table.equals ("Customer")) return this._customers;
+		if (table.equals ("Mechanic")) return this._mechanics;
+		if (table.equals ("Car")) return this._cars;
+		return null;
+	}
+
+	private static String entityColumns (String table) {
+		if (table.equals ("Customer")) return CUSTOMER_COLUMNS;
+		if (table.equals ("Mechanic")) return MECHANIC_COLUMNS;
+		return CAR_COLUMNS;
+	}
+
+	/**
+	 * @return the key filters consulted by exists() and existsMany()
+	 */
+	ExistenceFilters getExistence () {
+		return this._existence;
+	}
+
+	/**
+	 * @return the call counts and latencies of the menu options and helpers
+	 */
+	Metrics getMetrics () {
+		return this._metrics;
+	}
 
-		String query2 = "id = ";	
+	/**
+	 * Method to start building the key filters in the background.
+	 */
+	void buildExistenceFilters () {
+		this._existence.build (this._async);
+	}
+
+	/**
+	 * Method to register a car and its owner.  The Car and Owns rows are
+	 * inserted by one statement, so they take one round trip and are
+	 * committed together.
+	 * 
+	 * @param vin the VIN of the new car
+	 * @param make the make of the car
+	 * @param model the model of the car
+	 * @param year the model year
+	 * @param customerID the id of the owning customer
+	 * @throws java.sql.SQLException when either insert failed
+	 */
+	public void registerCar (String vin, String make, String model, int year, int customerID) throws SQLException {
+		int ownershipID = Integer.parseInt(ID("Owns"));
+		this._existence.added ("Car", vin);
+		executeUpdate(ShopOperations.INSERT_CAR_AND_OWNS, vin, make, model, year, ownershipID, customerID, vin);
+	}
 
-		//if new id exists, re-generate random number
+	/**
+	 * Method to register many cars and their owners at once.  All Car rows
+	 * are inserted first, then all Owns rows, each as one batched statement,
+	 * inside a single transaction: three round trips with the commit, however
+	 * many cars there are.  Once committed the cars go into the entity
+	 * cache and their owners' cached car lists are dropped, as with addCar.
+	 * 
+	 * @param cars one entry per car: vin, make, model, year, customer id
+	 * @return the number of cars registered
+	 * @throws java.sql.SQLException when an insert failed; nothing is committed
+	 */
+	public int registerCars (List<String[]> cars) throws SQLException {
+		WriteBatch batch = newBatch();
+		for (final String[] car : cars) {
+			batch.add(ShopOperations.INSERT_CAR, car[0], car[1], car[2], Integer.parseInt(car[3]));
+			this._existence.added ("Car", car[0]);
+			batch.afterCommit (new Runnable () {
+				public void run () {
+					entityAdded ("Car", car[0], car[1], car[2], Integer.parseInt(car[3]));
+					ownedCarsChanged (Integer.parseInt(car[4]));
+				}
+			});
+		}
+		for (String[] car : cars) {
+			batch.add(ShopOperations.INSERT_OWNS, Integer.parseInt(ID("Owns")), Integer.parseInt(car[4]), car[0]);
+		}
+		batch.flush();
+		return cars.size();
+	}//end registerCars
+
+	static String[] primaryKey (String table) {
+		for (String[] pk : PRIMARY_KEYS) {
+			if (pk[0].equalsIgnoreCase(table)) {
+				return pk;
+			}
+		}
+		throw new IllegalArgumentException("Unknown table " + table);
+	}
 
-		String execute = query + query2 + Integer.toString(newID);	
-		int results = executeQuery(execute);	
+	/**
+	 * Method to look up the cached prepared statement for a SQL shape on the
+	 * borrowed connection and bind the given parameters to it.
+	 * 
+	 * @param pc the borrowed connection
+	 * @param sql the parameterized SQL string
+	 * @param params the values bound to the placeholders, in order
+	 * @return the prepared statement, ready to execute
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	static PreparedStatement prepare (PooledConnection pc, String sql, Object[] params) throws SQLException {
+		WorkloadRecorder recorder = pc.getPool ().getRecorder ();
+		if (recorder != null) {
+			recorder.record (sql, params);
+		}
+		PreparedStatement stmt = pc.prepare (sql);
+		stmt.clearParameters ();
+		for (int i = 0; i < params.length; ++i) {
+			stmt.setObject (i + 1, params[i]);
+		}
+		return stmt;
+	}//end prepare
 
-		while(results == 1){
-			newID = ran.nextInt() & Integer.MAX_VALUE;	
-			execute = query + query2 + Integer.toString(newID);
-			results = executeQuery(execute);
-		}				
+	/**
+	 * Method to close the pooled physical connections.
+	 */
+	public void cleanup(){
+		this._async.shutdown ();
+		if (this._slowLog != null){
+			this._slowLog.close ();
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
+	}//end cleanup
 
-		return Integer.toString(newID);
+	/**
+	 * Method to generate a new primary key for one of the integer-keyed
+	 * tables (Customer, Mechanic, Owns, Service_Request, Closed_Request).
+	 * Keys come from blocks reserved through a sequence, so most calls do
+	 * not reach the database at all.
+	 * 
+	 * @param table the table the key is for
+	 * @return the new key
+	 * @throws java.sql.SQLException when a new block of keys could not be reserved
+	 */
+	public String ID(String table) throws SQLException{
+		Metrics.Scope scope = this._metrics.start ("jdbc.ID");
+		try {
+			return Integer.toString(this._ids.next(table));
+		} catch (SQLException e) {
+			scope.failed ();
+			throw e;
+		} finally {
+			scope.close ();
+		}
 	}//end ID
 
 	/**
@@ -252,10 +959,43 @@ public class MechanicShop{
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		String script = null;
+		int batchSize = 100;
+		int servePort = -1;
+		String loadDir = null;
+		int workers = 1;
+		boolean advise = false;
+		boolean migrate = false;
+		int limit = Integer.getInteger("mechanicshop.print.limit", 0);
+		int pageSize = Integer.getInteger("mechanicshop.print.pageSize", 0);
+		boolean validArgs = args.length >= 3;
+		for (int i = 3; validArgs && i < args.length; ++i) {
+			if (args[i].equals("--script") && i + 1 < args.length) {
+				script = args[++i];
+			} else if (args[i].equals("--batch-size") && i + 1 < args.length) {
+				batchSize = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--serve") && i + 1 < args.length) {
+				servePort = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--load") && i + 1 < args.length) {
+				loadDir = args[++i];
+			} else if (args[i].equals("--workers") && i + 1 < args.length) {
+				workers = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--advise")) {
+				advise = true;
+			} else if (args[i].equals("--migrate")) {
+				migrate = true;
+			} else if (args[i].equals("--limit") && i + 1 < args.length) {
+				limit = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--page") && i + 1 < args.length) {
+				pageSize = Integer.parseInt(args[++i]);
+			} else {
+				validArgs = false;
+			}
+		}
+		if (!validArgs) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + MechanicShop.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [--script <file|-> [--batch-size <n>] | --serve <http port> | --load <data dir> [--workers <n>]] [--limit <rows>] [--page <rows>] [--advise] [--migrate]");
 			return;
 		}//end if
 		
@@ -279,7 +1019,44 @@ public class MechanicShop{
 			String user = args[2];
 			
 			esql = new MechanicShop (dbname, dbport, user, "");
+			esql.setPrintOptions (limit, 0);
+
+			if (migrate) {
+				// bring the schema up to date, showing the plans and timings it changes
+				new IndexAdvisor (esql).migrate (new SchemaMigrations (esql.getPool ()));
+				return;
+			}
+			if (advise) {
+				// explained on the way out, see the finally block
+				esql.getPool ().setRecorder (new WorkloadRecorder ());
+			}
+
+			if (loadDir != null) {
+				// stream the data files into the (empty) tables and exit
+				BulkLoader loader = new BulkLoader (esql);
+				if (workers > 1) {
+					loader.loadParallel (new File (loadDir), workers);
+				} else {
+					loader.load (new File (loadDir));
+				}
+				return;
+			}
+			// report 10 reads the maintained totals, create them on first use
+			ShopOperations.ensureBillTotals (esql);
+			esql.buildExistenceFilters ();
+			if (script != null) {
+				// headless mode, run the script instead of the menu
+				new ScriptRunner (esql, batchSize).run (script);
+				return;
+			}
+			if (servePort >= 0) {
+				// server mode, answer HTTP requests until the JVM is stopped
+				new ShopServer (esql, servePort).serve ();
+				return;
+			}
 			
+			// only the interactive menu waits between pages
+			esql.setPrintOptions (limit, pageSize);
 			boolean keepon = true;
 			
 			System.out.println("  __  __           _                 _         _____ _                 ");
@@ -305,22 +1082,33 @@ public class MechanicShop{
 				System.out.println("9. ListKCarsWithTheMostServices");
 				System.out.println("10. ListCustomersInDescendingOrderOfTheirTotalBill");
 				System.out.println("11. < EXIT");
+				System.out.println("12. ExportReportToCsv");
 				
 				/*
 				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
 				 */
-				switch (readChoice()){
-					case 1: AddCustomer(esql); break;
-					case 2: AddMechanic(esql); break;
-					case 3: AddCar(esql); break;
-					case 4: InsertServiceRequest(esql); break;
-					case 5: CloseServiceRequest(esql); break;
-					case 6: ListCustomersWithBillLessThan100(esql); break;
-					case 7: ListCustomersWithMoreThan20Cars(esql); break;
-					case 8: ListCarsBefore1995With50000Milles(esql); break;
-					case 9: ListKCarsWithTheMostServices(esql); break;
-					case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
-					case 11: keepon = false; break;
+				int choice = readChoice();
+				Metrics.Scope scope = choice >= 0 && choice < MENU_OPERATIONS.length && MENU_OPERATIONS[choice] != null
+					? esql.getMetrics ().start (MENU_OPERATIONS[choice]) : null;
+				try {
+					switch (choice){
+						case 1: AddCustomer(esql); break;
+						case 2: AddMechanic(esql); break;
+						case 3: AddCar(esql); break;
+						case 4: InsertServiceRequest(esql); break;
+						case 5: CloseServiceRequest(esql); break;
+						case 6: ListCustomersWithBillLessThan100(esql); break;
+						case 7: ListCustomersWithMoreThan20Cars(esql); break;
+						case 8: ListCarsBefore1995With50000Milles(esql); break;
+						case 9: ListKCarsWithTheMostServices(esql); break;
+						case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
+						case 11: keepon = false; break;
+						case 12: ExportReportToCsv(esql); break;
+					}
+				} finally {
+					if (scope != null) {
+						scope.close ();
+					}
 				}
 			}
 		}catch(Exception e){
@@ -328,6 +1116,22 @@ public class MechanicShop{
 		}finally{
 			try{
 				if(esql != null) {
+					WorkloadRecorder recorder = esql.getPool ().getRecorder ();
+					if (recorder != null) {
+						esql.getPool ().setRecorder (null);
+						try {
+							List<String> proposals = new IndexAdvisor (esql).advise (recorder);
+							if (!proposals.isEmpty ()) {
+								File file = new SchemaMigrations (esql.getPool ()).write ("index advice", proposals);
+								System.out.println ("Wrote the proposals to " + file + ", review them and apply them with --migrate");
+							}
+						} catch (Exception e) {
+							System.err.println ("Index advice failed: " + e.getMessage ());
+						}
+					}
+					if (Boolean.parseBoolean (System.getProperty ("mechanicshop.metrics.dump", "true"))) {
+						esql.getMetrics ().print (System.out);
+					}
 					System.out.print("Disconnecting from database...");
 					esql.cleanup ();
 					
@@ -347,6 +1151,23 @@ public class MechanicShop{
 		}
 	}
 
+	//the operation each menu option is timed as, by option number
+	private static final String[] MENU_OPERATIONS = {
+		null,
+		"menu.AddCustomer",
+		"menu.AddMechanic",
+		"menu.AddCar",
+		"menu.InsertServiceRequest",
+		"menu.CloseServiceRequest",
+		"menu.ListCustomersWithBillLessThan100",
+		"menu.ListCustomersWithMoreThan20Cars",
+		"menu.ListCarsBefore1995With50000Milles",
+		"menu.ListKCarsWithTheMostServices",
+		"menu.ListCustomersInDescendingOrderOfTheirTotalBill",
+		null,
+		"menu.ExportReportToCsv"
+	};
+
 	public static int readChoice() {
 		int input;
 		// returns only if a correct value is given.
@@ -363,249 +1184,64 @@ public class MechanicShop{
 		return input;
 	}//end readChoice
 
+	// the checks themselves are the rules in Validator, these print their errors for the menus
 	public static boolean validateName(String name){
-		name = name.trim();		
-		if(name.length() > 32) {
-			System.out.println("ERROR: name must be 32 characters or less");			
-			return false;
-		}
-	
-		if(name.isEmpty()) {
-			System.out.println("ERROR: name can not be empty");
-			return false;
-		} 
-		
-		char[] chars = name.toCharArray();
-		for (char c : chars) {
-			if( (!Character.isLetter(c) && c != '-') &&  (c != '\'' &&  c != ' ') ) {
-				System.out.println("ERROR: name must be composed of only"); 
-				System.out.println(" * alphabetical characters (A-Z,a-z),"); 
-				System.out.println(" * hyphens (-),");
-				System.out.println(" * and/or apostrophes(')");				
-				return false;
-			}
-		}
-
-		return true;
+		return Validator.report(Validator.NAME, name);
 	}
 
 	public static boolean validatePhone(String phone){
-		if(phone.isEmpty()) {
-			System.out.println("ERROR: phone number must not empty");
-			return false;
-		}
+		return Validator.report(Validator.PHONE, phone);
+	}
 
-		if((phone.length() != 13 || phone.charAt(0) != '(') || (phone.charAt(4) != ')' || phone.charAt(8) != '-')) {
-			System.out.println("ERROR: phone number must be of the form (###)###-####");	
+	/**
+	 * Method to check a whole address, "street, city ST 12345", by the rules
+	 * the menus apply to each of its parts.
+	 */
+	public static boolean validateAddress(String address){
+		String[] parts = Validator.addressParts(address);
+		if (parts == null) {
+			System.out.println("ERROR: address must be of the form street, city ST 12345");
 			return false;
-		}		
-
-		char[] chars = phone.toCharArray();
-		int numCount = 0;
-
-		for (char c: chars) {
-			if(Character.isDigit(c)) {
-				numCount++;
-			}
-			
-			if(!Character.isDigit(c) && c != '-' && c != '(' && c != ')') {
-				System.out.println("ERROR: phone number must be of the form (###)###-####");
+		}
+		for (int i = 0; i < parts.length; ++i) {
+			if (!validateAddress(parts[i], i + 1)) {
 				return false;
 			}
 		}
-
-		if(numCount != 10) {
-			System.out.println("ERROR: phone number must be of the form (###)###-####");
-			return false;
-		}
-
 		return true;
 	}
 
 	public static boolean validateAddress(String address, int mode){
-		address = address.trim();		
-		if(address.isEmpty()) {
-			System.out.println("ERROR: input line must not empty");
-			return false;
-		}		
-
-		if (mode == 1) { // street address
-			char[] chars = address.toCharArray();
-			for (char c : chars) {
-				if( !Character.isDigit(c) && ((!Character.isLetter(c) && c != '.') &&  (c != '-' &&  c != ' ')) ) {
-					System.out.println("ERROR: street address must be composed of only"); 
-					System.out.println(" * alphabetical characters (A-Z,a-z),"); 
-					System.out.println(" * numerical characters (0-9),");
-					System.out.println(" * spaces ( ),");
-					System.out.println(" * hyphens (-),");
-					System.out.println(" * and/or periods (.),");			
-					return false;
-				}
-			}
-		} else if (mode == 2) { // city
-			char[] chars = address.toCharArray();
-			for (char c : chars) {
-				if( (!Character.isDigit(c)) && ((!Character.isLetter(c) && c != '.') &&  (c != '-' &&  c != ' ')) ) {
-					System.out.println("ERROR: City must be composed of only"); 
-					System.out.println(" * alphabetical characters (A-Z,a-z),"); 
-					System.out.println(" * numerical characters (0-9),");
-					System.out.println(" * spaces ( ),");
-					System.out.println(" * hyphens (-),");
-					System.out.println(" * and/or periods (.),");			
-					return false;
-				}
-			}
-		} else if (mode == 3) { // state
-			if (address.length() != 2) {
-				System.out.println("ERROR: State code must be two capital letters (ex: CA, NY)");
-				return false;
-			}
-
-			char[] chars = address.toCharArray();
-			for (char c : chars) {
-				if(!Character.isUpperCase(c)) {		
-					System.out.println("ERROR: State code must be two capital letters (ex: CA, NY)");
-					return false;
-				}
-			}
-		} else if (mode == 4) { // zip
-			if (address.length() != 5) {
-				System.out.println("ERROR: Zip code must be 5 digits long");
-				return false;
-			}
-
-			char[] chars = address.toCharArray();
-			for (char c : chars) {
-				if(!Character.isDigit(c)) {		
-					System.out.println("ERROR: Zip code must be only composed of digits");
-					return false;
-				}
-			}
-		}	
-
-		return true;
+		switch (mode) {
+			case 1: return Validator.report(Validator.STREET, address); // street address
+			case 2: return Validator.report(Validator.CITY, address); // city
+			case 3: return Validator.report(Validator.STATE, address); // state
+			case 4: return Validator.report(Validator.ZIP, address); // zip
+			default: return Validator.report(Validator.STREET, address);
+		}
 	}
 
 	public static boolean validateYears(String years){
-		char[] chars = years.toCharArray();
-		for (char c : chars) {
-			if(!Character.isDigit(c)) {		
-				System.out.println("ERROR: years of experience must be a number from 0 to 99 inclusive");
-				return false;
-			}
-		}		
-
-		int experience = Integer.parseInt(years);
-
-		if(experience < 0 || experience >= 100) {
-			System.out.println("ERROR: years of experience must be a number from 0 to 99 inclusive");		
-			return false;
-		}
-
-		return true;
+		return Validator.report(Validator.YEARS, years);
 	}
 	
 	public static boolean validateCar(String input, int mode) {
-		input = input.trim();
-		if (mode == 1) { // VIN
-			Boolean alpha = false;
-			Boolean numeric = false;
-			if (input.length() != 16) {
-					System.out.println("ERROR: VIN must be 16 characters long");
-					return false;
-			}
-			char[] chars = input.toCharArray();
-			for (char c : chars) {
-				if (!Character.isLetterOrDigit(c)) {
-					System.out.println("ERROR: VIN must be only composed of digits and letters");
-					return false;
-				}
-				else {
-					if (Character.isLetter(c)) {
-						alpha = true;
-					}
-					if (Character.isDigit(c)) {
-						numeric = true;
-					}
-			
-				}
-			}
-		
-			if (!(alpha && numeric)) {
-				System.out.println("ERROR: VIN must contain both digits and letters");
-				return false;
-			}
-			
-			return true;
-		} else if (mode == 2) { // MAKE
-			if(input.length() > 32) {
-				System.out.println("ERROR: make must be 32 characters or less");			
-				return false;
-			}
-			char[] chars = input.toCharArray();
-			for (char c : chars) {
-				if(!Character.isLetterOrDigit(c) && ((c != '&') &&  (c != '-' &&  c != ' ')) ) {
-					System.out.println("ERROR: make must be composed of only"); 
-					System.out.println(" * alphabetical characters (A-Z,a-z),"); 
-					System.out.println(" * numerical characters (0-9),");
-					System.out.println(" * spaces ( ),");
-					System.out.println(" * hyphens (-),");
-					System.out.println(" * and/or ampersands (&),");			
-					return false;
-				}
-			}
-			return true;
-		} else if (mode == 3) { // MODEL
-			if(input.length() > 32) {
-					System.out.println("ERROR: model must be 32 characters or less");			
-					return false;
-			}
-			char[] chars = input.toCharArray();
-			for (char c : chars) {
-				if(!Character.isLetterOrDigit(c) && (c != '-' &&  c != ' ') ) {
-					System.out.println("ERROR: model must be composed of only"); 
-					System.out.println(" * alphabetical characters (A-Z,a-z),"); 
-					System.out.println(" * numerical characters (0-9),");
-					System.out.println(" * spaces ( ),");
-					System.out.println(" * and/ or hyphens (-),");			
-					return false;
-				}
-			}
-			return true;
-		} else if (mode == 4) { // YEAR
-			if(input.length() != 4) {
-					System.out.println("ERROR: year must be 4 digits");			
-					return false;
-			} else {
-				char[] chars = input.toCharArray();
-				for (char c : chars) {
-					if(!Character.isDigit(c)) {
-						System.out.println("ERROR: year must be composed of only 4 digits"); 		
-						return false;
-					}
-				}
-			}
-			return true;
+		switch (mode) {
+			case 1: return Validator.report(Validator.VIN, input);
+			case 2: return Validator.report(Validator.MAKE, input);
+			case 3: return Validator.report(Validator.MODEL, input);
+			case 4: return Validator.report(Validator.YEAR, input);
+			default: return true;
 		}
-		return true;
 	}
 	
 	public static boolean validateServiceRequest(String srnum, MechanicShop esql){
-		if(srnum.isEmpty()) {
-			System.out.println("ERROR: Service Request Number must not be empty");		
+		if(!Validator.report(Validator.SERVICE_REQUEST, srnum)) {
 			return false;
-		}	
-
-		char[] chars = srnum.toCharArray();
-		for (char c : chars) {
-			if(!Character.isDigit(c)) {		
-				System.out.println("ERROR: Service Request Number must be only composed of digits");
-				return false;
-			}
-		}	
+		}
 
 		try{
-			if(0 == esql.executeQuery("SELECT * FROM Service_Request WHERE rid="+srnum)) {
+			if(!esql.exists("Service_Request", Integer.parseInt(srnum))) {
 				System.out.println("ERROR: Service Request Number " + srnum + " not found");
 				return false;
 			}
@@ -616,21 +1252,13 @@ public class MechanicShop{
 	}
 
 	public static boolean validateMechanic(String emnum, MechanicShop esql){
-		if(emnum.isEmpty()) {
-			System.out.println("ERROR: Employee ID Number must not be empty");		
+		if(!Validator.report(Validator.EMPLOYEE, emnum)) {
 			return false;
-		}	
-
-		char[] chars = emnum.toCharArray();
-		for (char c : chars) {
-			if(!Character.isDigit(c)) {		
-				System.out.println("ERROR: Employee ID Number must be only composed of digits");
-				return false;
-			}
-		}	
+		}
 
 		try{
-			if(0 == esql.executeQuery("SELECT * FROM Mechanic WHERE id="+emnum)) {
+			// read through the entity cache, the mechanics are few and checked often
+			if(esql.getEntity("Mechanic", Integer.parseInt(emnum)) == null) {
 				System.out.println("ERROR: Employee ID Number " + emnum + " not found");
 				return false;
 			}
@@ -641,20 +1269,7 @@ public class MechanicShop{
 	}	
 
 	public static boolean validateBill(String bill){
-		if(bill.isEmpty()) {
-			System.out.println("ERROR: total bill must not empty");
-			return false;
-		}		
-
-		char[] chars = bill.toCharArray();
-		for (char c : chars) {
-			if(!Character.isDigit(c)) {		
-				System.out.println("ERROR: bill must be composed of numbers only");
-				return false;
-			}
-		}		
-
-		return true;
+		return Validator.report(Validator.BILL, bill);
 	}
 
 	/*
@@ -664,7 +1279,6 @@ public class MechanicShop{
 	*/		
 	public static void AddCustomer(MechanicShop esql){//1
 		try{
-			String query = "INSERT INTO Customer(id, fname, lname, phone, address) VALUES ('";
 			System.out.print("===================================================\n");
 			System.out.print(" (1) ADDING NEW CUSTOMER\n");
 			System.out.print("===================================================\n");;
@@ -728,13 +1342,12 @@ public class MechanicShop{
 			
 			ad = ad + " " + temp;
 			
-			query = query + id + "', '" + fname + "', '" + lname + "', '" + ph + "', '" + ad + "')";
 			//System.out.println(query);			
 
 			System.out.print("---------\n");
 			System.out.print("Creating Customer #"+ id +"\nName: "+ fname + " "+ lname + "\nPhone: " + ph + "\nAddress: "+ ad + "\n");
 
-			esql.executeUpdate(query);
+			ShopOperations.addCustomer(esql, null, Integer.parseInt(id), fname, lname, ph, ad);
 			System.out.print("---------\n");
 			System.out.print("SUCCESS\n");
 			System.out.print("===================================================\n");
@@ -751,7 +1364,6 @@ public class MechanicShop{
 	*/
 	public static void AddMechanic(MechanicShop esql){//2
 		try {
-			String query = "INSERT INTO Mechanic(id, fname, lname, experience) VALUES (";
 			System.out.print("===================================================\n");
 			System.out.print(" (2) ADDING NEW MECHANIC\n");
 			System.out.print("===================================================\n");	
@@ -779,14 +1391,13 @@ public class MechanicShop{
 				exp = exp.trim();
 			} while(!validateYears(exp));
 
-			query = query + "'" + id +  "', '" + fname + "', '"+ lname + "', '" + exp + "')";
 			//System.out.print(query + "\n");
 
 
 			System.out.print("---------\n");
 			System.out.print("Creating Mechanic #"+ id +"\nName: "+ fname + " "+ lname + "\nExperience: " + exp + " years\n");
 
-			esql.executeUpdate(query);
+			ShopOperations.addMechanic(esql, null, Integer.parseInt(id), fname, lname, Integer.parseInt(exp));
 			System.out.print("---------\n");
 			System.out.print("SUCCESS\n");
 			System.out.print("===================================================\n");
@@ -803,7 +1414,6 @@ public class MechanicShop{
 	*/
 	public static void AddCar(MechanicShop esql){//3
 		try {
-			String query = "INSERT INTO Car(vin, make, model, year) VALUES ('";
 			System.out.print("===================================================\n");		
 			System.out.print(" (3) ADDING NEW CAR\n");
 			System.out.print("===================================================\n");
@@ -813,7 +1423,7 @@ public class MechanicShop{
 			String newModel;
 			String newYear;
 			Boolean getVin = true;
-			String customerID = "";
+			int customerID = 0;
 			
 			
 			System.out.print("Does this new car belong to an existing customer? Enter (Y/N): ");
@@ -831,12 +1441,11 @@ public class MechanicShop{
 				String lastName = in.readLine();
 				lastName = lastName.trim();
 				
-				String query2 = "SELECT lname, id FROM Customer WHERE lname = '";
-
-				query2 = query2 + lastName + "'";
+				// answered from memory, a trailing * matches every last name with that prefix
+				ResultTable results = esql.getCustomerNames().find(lastName);
 
 				// store number of results with given last name
-				int numResults = esql.executeQuery(query2); 
+				int numResults = results.size(); 
 
 				// No customers with given last name
 				if(numResults == 0) { 
@@ -845,17 +1454,13 @@ public class MechanicShop{
 					return;
 				}	
 				
-				
-				String newQuery = "SELECT fname, phone, id FROM Customer WHERE lname = '" + lastName + "'";
-				List<List<String>> results = esql.executeQueryAndReturnResult(newQuery);
-
 				int choice = 0;
 				do {
 					System.out.println("Select which customer initiated the service request");
 					System.out.println("Customers with last name \"" + lastName + "\"");
 					for (int i = 0; i < results.size(); i++) {
-						String fname = results.get(i).get(0);
-						String phone = results.get(i).get(1);
+						String fname = results.getString(i, 0);
+						String phone = results.getString(i, 1);
 						int currentName = i+1;
 						System.out.println(currentName + ") " + fname + "\t" + phone);
 					}
@@ -870,7 +1475,7 @@ public class MechanicShop{
 						return;
 					}
 				}	while (choice < 1 || choice > results.size()+1);
-				customerID = (results.get(choice-1).get(2));
+				customerID = results.getInt(choice-1, 2);
 			}
 			else {
 				System.out.print("Do you want to add a new customer? Enter (Y/N): ");
@@ -884,7 +1489,7 @@ public class MechanicShop{
 					} while (!input2.equalsIgnoreCase("y") && !input2.equalsIgnoreCase("n"));
 				}
 				if (input2.equalsIgnoreCase("y")) {
-					customerID = addCustomerReturnID(esql);
+					customerID = Integer.parseInt(addCustomerReturnID(esql));
 				}
 				else {
 					System.out.println("Request to add car cancelled. No customer to attach.");
@@ -903,11 +1508,10 @@ public class MechanicShop{
 				
 				newVIN = newVIN.toUpperCase();
 				//run sql query to check if VIN exists in database
-				String checkExistingCar = "SELECT * FROM Car WHERE vin = '" + newVIN + "'";
-				int carExists = esql.executeQuery(checkExistingCar);
+				boolean carExists = esql.getEntity("Car", newVIN) != null;
 				
 				// CAR ALREADY EXISTS
-				if (carExists == 1) {
+				if (carExists) {
 					System.out.println("ERROR: Car \"" + newVIN +"\" already exists in database");
 					// TRY AGAIN?
 					System.out.print("Do you want to try again? (Y/N): ");
@@ -952,15 +1556,7 @@ public class MechanicShop{
 				newYear = newYear.trim();
 			} while (!validateCar(newYear, 4));
 
-			if (Integer.parseInt(newYear) < 1970) {
-				System.out.println("ERROR: Car is too old to add to Mechanic Shop Database");
-				System.out.println("CANCELLED ADDING CAR");
-				System.out.println("===================================================");
-				return;
-			}
-
-			if (Integer.parseInt(newYear) > 2019) {
-				System.out.println("ERROR: Mechanic shop does not have the tools to work on a car from the future");
+			if (!Validator.report(Validator.CAR_YEAR, newYear)) {
 				System.out.println("CANCELLED ADDING CAR");
 				System.out.println("===================================================");
 				return;
@@ -969,10 +1565,7 @@ public class MechanicShop{
 			System.out.print("---------\n");
 			System.out.print("Adding Car "+ newVIN + "\nMake: " + newMake + "\nModel: "+ newModel + "\nYear: " + newYear + "\n");
 
-			query = query + newVIN + "', '" + newMake + "', '" + newModel + "', '" + newYear + "')";
-
-			esql.executeUpdate(query);
-			esql.executeUpdate("INSERT INTO OWNS(ownership_id, customer_id, car_vin) VALUES ('" + esql.ID("Owns") + "', '" + customerID + "', '" + newVIN + "')");
+			ShopOperations.addCar(esql, null, customerID, newVIN, newMake, newModel, Integer.parseInt(newYear));
 			
 			System.out.print("---------\n");
 			System.out.print("SUCCESS\n");
@@ -985,10 +1578,9 @@ public class MechanicShop{
 	
 	
 	// HELPER FUNCTIONS FOR INSERT SERVICE REQUEST
-	public static String addCarReturnVIN(MechanicShop esql, String customerID){
+	public static String addCarReturnVIN(MechanicShop esql, int customerID){
 		String newVIN = "";
 		try {
-			String query = "INSERT INTO Car(vin, make, model, year) VALUES ('";
 			System.out.print("===================================================\n");		
 			System.out.print(" (3) ADDING NEW CAR\n");
 			System.out.print("===================================================\n");
@@ -1007,11 +1599,10 @@ public class MechanicShop{
 				
 				newVIN = newVIN.toUpperCase();
 				//run sql query to check if VIN exists in database
-				String checkExistingCar = "SELECT * FROM Car WHERE vin = '" + newVIN + "'";
-				int carExists = esql.executeQuery(checkExistingCar);
+				boolean carExists = esql.getEntity("Car", newVIN) != null;
 				
 				// CAR ALREADY EXISTS
-				if (carExists == 1) {
+				if (carExists) {
 					System.out.println("ERROR: Car \"" + newVIN +"\" already exists in database");
 					// TRY AGAIN?
 					System.out.println("Do you want to try again? (Y/N)");
@@ -1055,8 +1646,7 @@ public class MechanicShop{
 				newYear = newYear.trim();
 			} while (!validateCar(newYear, 4));
 
-			if (Integer.parseInt(newYear) < 1970) {
-				System.out.println("ERROR: Car is too old to add to Mechanic Shop Database");
+			if (!Validator.report(Validator.CAR_YEAR, newYear)) {
 				System.out.println("CANCELLED ADDING CAR");
 				System.out.println("===================================================");
 				return "cancelled";
@@ -1065,10 +1655,7 @@ public class MechanicShop{
 			System.out.print("---------\n");
 			System.out.print("Adding Car "+ newVIN + "\nMake: " + newMake + "\nModel: "+ newModel + "\nYear: " + newYear + "\n");
 
-			query = query + newVIN + "', '" + newMake + "', '" + newModel + "', '" + newYear + "')";
-
-			esql.executeUpdate(query);
-			esql.executeUpdate("INSERT INTO OWNS(ownership_id, customer_id, car_vin) VALUES ('" + esql.ID("Owns") + "', '" + customerID + "', '" + newVIN + "')");
+			ShopOperations.addCar(esql, null, customerID, newVIN, newMake, newModel, Integer.parseInt(newYear));
 			return newVIN;
 					
 		} catch (Exception e) {
@@ -1081,7 +1668,6 @@ public class MechanicShop{
 	public static String addCustomerReturnID(MechanicShop esql) {
 		String id = "";
 		try{
-			String query = "INSERT INTO Customer(id, fname, lname, phone, address) VALUES ('";
 			System.out.print("===================================================\n");
 			System.out.print(" (1) ADDING NEW CUSTOMER\n");
 			System.out.print("===================================================\n");;
@@ -1145,13 +1731,12 @@ public class MechanicShop{
 			
 			ad = ad + " " + temp;
 			
-			query = query + id + "', '" + fname + "', '" + lname + "', '" + ph + "', '" + ad + "')";
 			//System.out.println(query);			
 
 			System.out.print("---------\n");
 			System.out.print("Creating Customer #"+ id +"\nName: "+ fname + " "+ lname + "\nPhone: " + ph + "\nAddress: "+ ad + "\n");
 			
-			esql.executeUpdate(query);
+			ShopOperations.addCustomer(esql, null, Integer.parseInt(id), fname, lname, ph, ad);
 			System.out.print("---------\n");
 			System.out.print("SUCCESS\n");
 			System.out.print("===================================================\n");
@@ -1178,15 +1763,16 @@ public class MechanicShop{
 			System.out.print(" (4) CREATING NEW SERVICE REQUEST\n");
 			System.out.print("===================================================\n");
 
-			String query = "SELECT lname, id FROM Customer WHERE lname = '";
 			System.out.println("Please enter customer last name ");
 			String last = in.readLine();
 			last = last.trim();
-			query = query + last + "'";
+
+			// answered from memory, a trailing * matches every last name with that prefix
+			ResultTable results = esql.getCustomerNames().find(last);
 
 			// store number of results with given last name
-			int numResults = esql.executeQuery(query); 
-			String customerID = "";
+			int numResults = results.size(); 
+			int customerID = 0;
 			String carVIN = "";
 
 			// No customers with given last name
@@ -1204,7 +1790,7 @@ public class MechanicShop{
 				}	
 				// if y, add car
 				if(choice.equalsIgnoreCase("y")) { 
-					customerID = addCustomerReturnID(esql); //add customer and get ID
+					customerID = Integer.parseInt(addCustomerReturnID(esql)); //add customer and get ID
 					
 					carVIN = addCarReturnVIN(esql, customerID); //adds to car and to owns
 					if (carVIN.equals("cancelled")) {
@@ -1216,26 +1802,19 @@ public class MechanicShop{
 				}
 			//found customer(s) with given last name
 			} else { 
-				String newQuery = "SELECT fname, phone, id FROM Customer WHERE lname = '" + last + "'";
-				List<List<String>> results = esql.executeQueryAndReturnResult(newQuery);
-
-
 				System.out.println("Select which customer initiated the service request");
 				System.out.println("Customers with last name \"" + last + "\"");
 				for (int i = 0; i < results.size(); i++) {
-					String fname = results.get(i).get(0);
-					String phone = results.get(i).get(1);
+					String fname = results.getString(i, 0);
+					String phone = results.getString(i, 1);
 					int currentName = i+1;
 					System.out.println(currentName + ") " + fname + "\t" + phone);
 				}
 				int choice = Integer.parseInt(in.readLine());
-				customerID = (results.get(choice-1).get(2));
+				customerID = results.getInt(choice-1, 2);
 			
 				// list customer's cars
-				String listCars = "SELECT * FROM Car C WHERE C.vin IN (SELECT car_vin FROM Owns	WHERE customer_id = '"; 
-				listCars = listCars + customerID + "')";
-				
-				List<List<String>> customerCars = esql.executeQueryAndReturnResult(listCars);
+				ResultTable customerCars = esql.getOwnedCars(customerID);
 				if (customerCars.size() == 0) {
 					System.out.println("ERROR: Customer does not have any cars in the database.\nCancelling insert service request.");
 					System.out.print("===================================================\n");					
@@ -1244,10 +1823,10 @@ public class MechanicShop{
 					System.out.println("Select which car to initiate service request for or add a new car");
 
 					for (int i = 0; i < customerCars.size(); i++) {
-						String carVin = customerCars.get(i).get(0);
-						String carMake = customerCars.get(i).get(1);
-						String carModel = customerCars.get(i).get(2);
-						String carYear = customerCars.get(i).get(3);
+						String carVin = customerCars.getString(i, "vin");
+						String carMake = customerCars.getString(i, "make");
+						String carModel = customerCars.getString(i, "model");
+						int carYear = customerCars.getInt(i, "year");
 						int currentCar = i+1;
 						System.out.println(currentCar + ") " + carVin + "\t" + carMake + "\t" + carModel + "\t" + carYear);
 					}
@@ -1261,7 +1840,7 @@ public class MechanicShop{
 					}
 
 					else { //get selected car
-						srVin = customerCars.get(carChoice).get(0);	
+						srVin = customerCars.getString(carChoice, "vin");	
 					}
 				
 					//initiate service request
@@ -1273,31 +1852,20 @@ public class MechanicShop{
 					String srComplain;
 		
 
-					Boolean isValidOdometer = false;
 					do {
 						System.out.print("Please enter odometer reading: ");
 						srOdometer = in.readLine();	
 						srOdometer = srOdometer.trim();
-						char[] odometerNum = srOdometer.toCharArray();
-						int length = odometerNum.length;
-						for (char c : odometerNum) {
-							if(!Character.isDigit(c)) {
-								isValidOdometer = false;
-								System.out.println("ERROR: Odometer value must be composed of numerical characters (0-9)");
-							}
-							else if (c == length-1) {
-								isValidOdometer = true;
-							}
-						}
-						isValidOdometer = true;
-					} while(!isValidOdometer);
+					} while(!Validator.report(Validator.ODOMETER, srOdometer));
 
 					System.out.print("Please enter a complaint: ");
 					srComplain = in.readLine();
 					srComplain = srComplain.trim();
 					
-					String srQuery = "INSERT INTO Service_request(rid, customer_id, car_vin, date, odometer, complain) VALUES ('";
-					srQuery = srQuery + srID + "', '" + customerID + "', '" + srVin + "', '" + "CURRENT_DATE"   + "', '" + srOdometer + "', '" + srComplain + "')";
+					ShopOperations.insertServiceRequest(esql, null, Integer.parseInt(srID), customerID, srVin, Integer.parseInt(srOdometer), srComplain);
+					System.out.print("---------\n");
+					System.out.print("SUCCESS\n");
+					System.out.print("===================================================\n");
 				}
 			 }
 		} catch (Exception e) {
@@ -1332,19 +1900,15 @@ public class MechanicShop{
 				mid = mid.trim();		
 			} while(!validateMechanic(mid,esql));
 
-			Date d = Calendar.getInstance().getTime();
-			SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-			String closureDate = dateFormat.format(d);
+			LocalDate today = LocalDate.now();
+			String closureDate = today.toString();
 
-			String validationQuery = "SELECT date FROM Service_Request WHERE rid='" + rid + "'";
-			List<List<String>> myTuple = esql.executeQueryAndReturnResult(validationQuery);
-			
-			String ServiceRequestDate = myTuple.get(0).get(0);
+			String validationQuery = "SELECT date FROM Service_Request WHERE rid = ?";
+			ResultTable myTuple = esql.executeQueryAndReturnTable(validationQuery, Integer.parseInt(rid));
 			
-			Date ServiceDate = dateFormat.parse(ServiceRequestDate);
-			Date ClosureDate = dateFormat.parse(closureDate);
+			String ServiceRequestDate = myTuple.getString(0, "date");
 
-			if (ServiceDate.compareTo(ClosureDate) > 0) {
+			if (myTuple.getEpochDay(0, "date") > today.toEpochDay()) {
 				// System.out.println("ServiceDate is after ClosureDate");
 				System.out.println("ERROR: Current date (" + closureDate + ") is before date of service (" + ServiceRequestDate + ")\nCannot close service request " + rid + " because no service has been done");
 			} else {
@@ -1365,14 +1929,11 @@ public class MechanicShop{
 				
 
 
-				String closeString = "INSERT INTO Closed_Request(wid,rid,mid,date,comment,bill) VALUES ('";
-				closeString = closeString + wid + "', '" + rid + "', '" + mid + "', '" + closureDate + "', '" + comment + "', '" + bill + "')";
-
 				System.out.print("---------");
 				String receipt = "\nReceipt number: " + wid + "\n\nService request #"+ rid +"\nClosed by Employee #" + mid + "\nDate of Closure: " + closureDate + "\nComments: "+ comment + "\nAmount Paid: $" + bill + "\n";
 				System.out.print(receipt);
 
-				esql.executeUpdate(closeString);
+				ShopOperations.closeServiceRequest(esql, null, Integer.parseInt(wid), Integer.parseInt(rid), Integer.parseInt(mid), today, comment, Integer.parseInt(bill));
 				System.out.print("---------\n");
 				System.out.print("SUCCESS\n");
 				System.out.print("===================================================\n");
@@ -1392,11 +1953,10 @@ public class MechanicShop{
 
 	public static void ListCustomersWithBillLessThan100(MechanicShop esql){//6
 		try {		
-			String query = "SELECT date,bill,comment FROM Closed_Request WHERE bill < 100";
 			System.out.print("===================================================\n");
 			System.out.print(" (6) LISTING CUSTOMERS WITH BILL < 100\n");
 			System.out.print("===================================================\n");
-			esql.executeQueryAndPrintResult(query);
+			ShopOperations.printReport(esql, 6, 0);
 			System.out.print("===================================================\n");
 		} catch (Exception e) {
 			System.out.println(e.getMessage());		
@@ -1411,12 +1971,11 @@ public class MechanicShop{
 
 	public static void ListCustomersWithMoreThan20Cars(MechanicShop esql){//7
 		try {		
-			String query = "SELECT fname, lname, O.car_num FROM Customer,( SELECT customer_id,COUNT(customer_id) as car_num FROM Owns GROUP BY customer_id HAVING COUNT(customer_id) > 20) AS O WHERE O.customer_id = id;";
 			
 			System.out.print("===================================================\n");
 			System.out.print(" (7) LISTING CUSTOMERS WITH CARS > 20\n");
 			System.out.print("===================================================\n");
-			esql.executeQueryAndPrintResult(query);
+			ShopOperations.printReport(esql, 7, 0);
 			System.out.print("===================================================\n");
 		} catch (Exception e) {
 			System.out.println(e.getMessage());		
@@ -1427,13 +1986,12 @@ public class MechanicShop{
 	than 50000 miles in the odometer*/
 	public static void ListCarsBefore1995With50000Milles(MechanicShop esql){//8
 		try {		
-			String query = "SELECT DISTINCT make,model, year FROM Car AS C, Service_Request AS S WHERE year < 1995 and S.car_vin = C.vin and S.odometer < 50000";
 			
 			System.out.print("===================================================\n");	
 			System.out.print(" (8) LISTING CARS BEFORE 1995 WITH < 50,000 MILES\n");
 			System.out.print("===================================================\n");
 						
-			esql.executeQueryAndPrintResult(query);
+			ShopOperations.printReport(esql, 8, 0);
 			System.out.print("===================================================\n");
 		} catch (Exception e) {
 			System.out.println(e.getMessage());		
@@ -1449,8 +2007,6 @@ public class MechanicShop{
 
 	public static void ListKCarsWithTheMostServices(MechanicShop esql){//9
 		try {		
-			String query = "SELECT make, model, R.creq FROM Car AS C, ( SELECT car_vin, COUNT(rid) AS creq FROM Service_Request GROUP BY car_vin ) AS R WHERE R.car_vin = C.vin ORDER BY R.creq DESC LIMIT ";
-
 			System.out.print("===================================================\n");	
 			System.out.print(" (9) LISTING CARS WITH MOST SERVICE REQUESTS\n");
 			System.out.print("===================================================\n");
@@ -1464,8 +2020,7 @@ public class MechanicShop{
 				k = Integer.parseInt(kstring);
 			} while (false);
 			
-			query = query + kstring;
-			esql.executeQueryAndPrintResult(query);
+			ShopOperations.printReport(esql, 9, k);
 
 			System.out.print("===================================================\n");
 		} catch (Exception e) {
@@ -1480,17 +2035,51 @@ public class MechanicShop{
 
 	public static void ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql){//10
 		try {		
-			String query = "SELECT C.fname , C.lname, Total FROM Customer AS C, (SELECT sr.customer_id, SUM(CR.bill) AS Total FROM Closed_Request AS CR, Service_Request AS SR WHERE CR.rid = SR.rid GROUP BY SR.customer_id) AS A WHERE C.id=A.customer_id ORDER BY A.Total DESC";
 
 			System.out.print("===================================================\n");	
 			System.out.print(" (10) LISTING CARS WITH MOST SERVICE REQUESTS\n");
 			System.out.print("===================================================\n");
 
-			esql.executeQueryAndPrintResult(query);
+			ShopOperations.printReport(esql, 10, 0);
 			System.out.print("===================================================\n");
 		} catch (Exception e) {
 			System.out.println(e.getMessage());		
 		}
 	}
 	
+	/*Write one of the reports 6 to 10 to a csv file with a header line, for
+	accounting.  The rows are streamed by the server through COPY.*/
+	public static void ExportReportToCsv(MechanicShop esql){//12
+		try {
+			System.out.print("===================================================\n");
+			System.out.print(" (12) EXPORTING A REPORT TO CSV\n");
+			System.out.print("===================================================\n");
+			
+			int report;
+			do {
+				System.out.print("Please enter the report to export (6-10): ");
+				try {
+					report = Integer.parseInt(in.readLine().trim());
+				} catch (NumberFormatException e) {
+					report = 0;
+				}
+			} while (report < ShopOperations.FIRST_REPORT || report > ShopOperations.LAST_REPORT);
+			
+			int k = 0;
+			if (report == 9) {
+				System.out.print("Please enter limit value, k: ");
+				k = Integer.parseInt(in.readLine().trim());
+			}
+			
+			System.out.print("Please enter the file name: ");
+			File file = new File(in.readLine().trim());
+			long start = System.nanoTime();
+			long rows = ShopOperations.exportReport(esql, report, k, file);
+			System.out.printf("Wrote %d rows to %s in %.2f s%n", rows, file, (System.nanoTime() - start) / 1e9);
+			System.out.print("===================================================\n");
+		} catch (Exception e) {
+			System.out.println(e.getMessage());
+		}
+	}
+	
 }
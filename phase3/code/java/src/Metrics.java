@@ -0,0 +1,219 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * This class keeps call counts and latency histograms per operation: the
+ * menu options and the JDBC helpers of MechanicShop.  An operation is timed
+ * by a Scope, which also counts the database round trips made while it is
+ * open.  Scopes nest per thread, so a menu option is charged the round trips
+ * and the time of every helper it calls.
+ *
+ * Every operation is published as an MBean named
+ * mechanicshop:type=Operation,name=<operation> (see jconsole), and print()
+ * writes them all as a table, which the client does on exit.
+ *
+ * -Dmechanicshop.metrics=false turns the timing off, and
+ * -Dmechanicshop.metrics.jmx=false keeps the MBeans unregistered.
+ *
+ */
+
+public class Metrics {
+	/**
+	 * The attributes published for every operation.  Times are in
+	 * milliseconds.
+	 */
+	public interface OperationMBean {
+		long getCalls();
+		long getErrors();
+		double getMeanMillis();
+		double getP50Millis();
+		double getP99Millis();
+		double getMaxMillis();
+		double getRoundTripsPerCall();
+		double getInnerMillisPerCall();
+	}
+
+	/**
+	 * The counters of one operation.
+	 */
+	public static final class Operation implements OperationMBean {
+		private final LatencyHistogram _latency = new LatencyHistogram();
+		private final LongAdder _errors = new LongAdder();
+		private final LongAdder _roundTrips = new LongAdder();
+		//time spent in nested operations, e.g. the helpers a menu option calls
+		private final LongAdder _innerNanos = new LongAdder();
+
+		public long getCalls() {
+			return this._latency.getCount();
+		}
+
+		public long getErrors() {
+			return this._errors.sum();
+		}
+
+		public double getMeanMillis() {
+			return this._latency.getMean() / 1e6;
+		}
+
+		public double getP50Millis() {
+			return this._latency.percentile(0.50) / 1e6;
+		}
+
+		public double getP99Millis() {
+			return this._latency.percentile(0.99) / 1e6;
+		}
+
+		public double getMaxMillis() {
+			return this._latency.getMax() / 1e6;
+		}
+
+		public double getRoundTripsPerCall() {
+			long calls = getCalls();
+			return calls == 0 ? 0 : (double) this._roundTrips.sum() / calls;
+		}
+
+		public double getInnerMillisPerCall() {
+			long calls = getCalls();
+			return calls == 0 ? 0 : this._innerNanos.sum() / 1e6 / calls;
+		}
+	}
+
+	/**
+	 * One running call of an operation, closed in a finally block.
+	 */
+	public static final class Scope {
+		private final Operation _operation;
+		private final Scope _parent;
+		private final long _start;
+		private long _roundTrips = 0;
+		private long _innerNanos = 0;
+		private boolean _failed = false;
+
+		private Scope(Operation operation, Scope parent) {
+			this._operation = operation;
+			this._parent = parent;
+			this._start = System.nanoTime();
+		}
+
+		/**
+		 * Method to count this call as an error once it is closed.
+		 */
+		public void failed() {
+			this._failed = true;
+		}
+
+		public void close() {
+			if (this._operation == null) {
+				return;
+			}
+			long nanos = System.nanoTime() - this._start;
+			this._operation._latency.record(nanos);
+			this._operation._roundTrips.add(this._roundTrips);
+			this._operation._innerNanos.add(this._innerNanos);
+			if (this._failed) {
+				this._operation._errors.increment();
+			}
+			if (this._parent != null) {
+				this._parent._roundTrips += this._roundTrips;
+				this._parent._innerNanos += nanos;
+			}
+			CURRENT.set(this._parent);
+		}//end close
+	}
+
+	//handed out when timing is off
+	private static final Scope NONE = new Scope(null, null);
+	//the innermost open scope of each thread
+	private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<Scope>();
+
+	private final boolean _enabled = Boolean.parseBoolean(System.getProperty("mechanicshop.metrics", "true"));
+	private final boolean _jmx = Boolean.parseBoolean(System.getProperty("mechanicshop.metrics.jmx", "true"));
+	private final ConcurrentHashMap<String, Operation> _operations = new ConcurrentHashMap<String, Operation>();
+
+	/**
+	 * Method to start timing a call of an operation on this thread.
+	 *
+	 * @param name the operation, e.g. "menu.AddCustomer"
+	 * @return the scope to close when the call returns
+	 */
+	public Scope start(String name) {
+		if (!this._enabled) {
+			return NONE;
+		}
+		Scope scope = new Scope(operation(name), CURRENT.get());
+		CURRENT.set(scope);
+		return scope;
+	}
+
+	/**
+	 * Method to count database round trips against the operations open on
+	 * this thread.  Does nothing outside of a scope.
+	 *
+	 * @param count the number of round trips made
+	 */
+	public static void roundTrips(long count) {
+		Scope scope = CURRENT.get();
+		if (scope != null) {
+			scope._roundTrips += count;
+		}
+	}
+
+	/**
+	 * @return the counters of an operation, registered on first use
+	 */
+	Operation operation(String name) {
+		Operation operation = this._operations.get(name);
+		if (operation == null) {
+			Operation created = new Operation();
+			operation = this._operations.putIfAbsent(name, created);
+			if (operation == null) {
+				operation = created;
+				register(name, created);
+			}
+		}
+		return operation;
+	}
+
+	private void register(String name, Operation operation) {
+		if (!this._jmx) {
+			return;
+		}
+		try {
+			ObjectName objectName = new ObjectName("mechanicshop:type=Operation,name=" + ObjectName.quote(name));
+			if (!ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(operation, OperationMBean.class), objectName);
+			}
+		} catch (JMException e) {
+			// still counted, just not published
+		}
+	}
+
+	/**
+	 * Method to print every operation called so far as a table.
+	 *
+	 * @param out where to print
+	 */
+	public void print(PrintStream out) {
+		Map<String, Operation> sorted = new TreeMap<String, Operation>(this._operations);
+		if (sorted.isEmpty()) {
+			return;
+		}
+		out.println("===================================================");
+		out.println(" OPERATION LATENCIES");
+		out.println("===================================================");
+		out.printf("%-52s %8s %7s %10s %10s %10s %8s %10s%n", "operation", "calls", "errors", "p50 ms", "p99 ms", "max ms", "trips", "inner ms");
+		for (Map.Entry<String, Operation> e : sorted.entrySet()) {
+			Operation o = e.getValue();
+			out.printf("%-52s %8d %7d %10.3f %10.3f %10.3f %8.2f %10.3f%n", e.getKey(), o.getCalls(), o.getErrors(),
+				o.getP50Millis(), o.getP99Millis(), o.getMaxMillis(), o.getRoundTripsPerCall(), o.getInnerMillisPerCall());
+		}
+		out.println("===================================================");
+	}//end print
+}
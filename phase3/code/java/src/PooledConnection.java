@@ -0,0 +1,93 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * A physical database connection handed out by the ConnectionPool.  The pool
+ * keeps track of when the connection was last used so it can validate stale
+ * connections on borrow and evict the ones that sit idle for too long.  Each
+ * connection also owns the cache of statements prepared on it.
+ *
+ */
+
+public class PooledConnection {
+	//reference to physical database connection
+	private final Connection _connection;
+	private final ConnectionPool _pool;
+	private final StatementCache _statements;
+	private long _lastUsed;
+	private boolean _broken = false;
+
+	PooledConnection(Connection connection, ConnectionPool pool) {
+		this._connection = connection;
+		this._pool = pool;
+		this._statements = new StatementCache(connection);
+		this._lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the physical connection wrapped by this pool entry
+	 */
+	public Connection getConnection() {
+		return this._connection;
+	}
+
+	/**
+	 * Method to obtain a prepared statement for the given SQL from this
+	 * connection's statement cache.  The statement must not be closed by the
+	 * caller.
+	 *
+	 * @param sql the parameterized SQL string
+	 * @return the cached prepared statement
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		return this._statements.prepare(sql);
+	}
+
+	/**
+	 * Method to inspect a failure raised while using this connection.  Errors
+	 * in the SQLSTATE class 08 (connection exception) mean the socket is gone,
+	 * so the connection is flagged and the pool discards it on release
+	 * instead of handing it to the next caller.
+	 *
+	 * @param e the exception raised by the driver
+	 */
+	public void checkBroken(SQLException e) {
+		String state = e.getSQLState();
+		if (state == null || state.startsWith("08")) {
+			this._broken = true;
+		}
+	}//end checkBroken
+
+	/**
+	 * @return the pool this connection belongs to
+	 */
+	ConnectionPool getPool() {
+		return this._pool;
+	}
+
+	boolean isBroken() {
+		return this._broken;
+	}
+
+	long getLastUsed() {
+		return this._lastUsed;
+	}
+
+	void touch() {
+		this._lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Method to close the physical connection, ignoring any error.
+	 */
+	void closeQuietly() {
+		this._statements.clear();
+		try {
+			this._connection.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}//end closeQuietly
+}
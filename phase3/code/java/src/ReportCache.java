@@ -0,0 +1,182 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class keeps the results of recently run reports so a report that is
+ * viewed again before anything it reads has changed is answered from memory.
+ * Entries are keyed by report and parameters, evicted least recently used
+ * first once the cache is full, and expire after a fixed time so changes
+ * made by other clients show up eventually.
+ *
+ * Every entry lists the tables its report reads.  MechanicShop and WriteBatch
+ * call invalidateFor() with each write statement they commit, which drops
+ * exactly the entries reading the table written to.
+ *
+ * A result is only stored if none of its tables were written to while the
+ * report ran, so a concurrent write can never leave a stale entry behind.
+ * Results with more rows than the row bound are not stored at all, so the
+ * memory held by the cache stays bounded.
+ *
+ */
+
+public class ReportCache {
+	//a table named by an INSERT, UPDATE or DELETE, also inside a WITH clause
+	private static final Pattern WRITTEN_TABLE = Pattern.compile(
+		"\\b(?:INSERT\\s+INTO|UPDATE|DELETE\\s+FROM)\\s+([A-Za-z_][A-Za-z_0-9]*)", Pattern.CASE_INSENSITIVE);
+
+	private static final class Entry {
+		final ResultTable table;
+		final String[] tables;
+		final long expires;
+
+		Entry(ResultTable table, String[] tables, long expires) {
+			this.table = table;
+			this.tables = tables;
+			this.expires = expires;
+		}
+	}
+
+	private final int _maxSize;
+	private final int _maxRows;
+	private final long _ttlNanos;
+	private final LinkedHashMap<String, Entry> _entries;
+	//bumped by every invalidation, see put()
+	private long _generation = 0;
+	private long _hits = 0;
+	private long _misses = 0;
+
+	/**
+	 * @param maxSize the number of results kept at most, 0 disables the cache
+	 * @param ttlMillis how long a result is served at most
+	 * @param maxRows the number of rows a stored result has at most
+	 */
+	public ReportCache(final int maxSize, long ttlMillis, int maxRows) {
+		if (maxSize < 0 || ttlMillis <= 0 || maxRows < 0) {
+			throw new IllegalArgumentException("cache size and row bound cannot be negative and time to live must be positive");
+		}
+		this._maxSize = maxSize;
+		this._maxRows = maxRows;
+		this._ttlNanos = ttlMillis * 1000000L;
+		this._entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @param report the menu option of the report
+	 * @param params the parameters of the report
+	 * @return the key the result of that report is stored under
+	 */
+	public static String key(int report, Object... params) {
+		StringBuilder key = new StringBuilder().append(report);
+		for (Object param : params) {
+			key.append('|').append(param);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return the cached result, or null when it is missing or expired
+	 */
+	public synchronized ResultTable get(String key) {
+		Entry e = this._entries.get(key);
+		if (e != null && e.expires - System.nanoTime() <= 0) {
+			this._entries.remove(key);
+			e = null;
+		}
+		if (e == null) {
+			++this._misses;
+			return null;
+		}
+		++this._hits;
+		return e.table;
+	}
+
+	/**
+	 * @return the generation to pass to put() for a result read from now on
+	 */
+	public synchronized long generation() {
+		return this._generation;
+	}
+
+	/**
+	 * @return the number of rows a stored result has at most
+	 */
+	public int getMaxRows() {
+		return this._maxRows;
+	}
+
+	/**
+	 * @return whether results are stored at all
+	 */
+	public boolean isEnabled() {
+		return this._maxSize > 0;
+	}
+
+	/**
+	 * Method to store a result, unless a table was invalidated since the
+	 * given generation was read (the result may then already be stale) or
+	 * it has more rows than the row bound.
+	 *
+	 * @param generation the value of generation() before the report ran
+	 * @param tables the tables the report reads, in lower case
+	 */
+	public synchronized void put(String key, long generation, ResultTable table, String[] tables) {
+		if (this._maxSize > 0 && table.size() <= this._maxRows && generation == this._generation) {
+			this._entries.put(key, new Entry(table, tables, System.nanoTime() + this._ttlNanos));
+		}
+	}
+
+	/**
+	 * Method to drop every result reading a table a write statement
+	 * changes.  A statement with data-modifying WITH clauses writes to more
+	 * than one table; statements writing nothing are ignored.
+	 *
+	 * @param sql the write statement that was committed
+	 */
+	public void invalidateFor(String sql) {
+		Matcher m = WRITTEN_TABLE.matcher(sql);
+		while (m.find()) {
+			invalidate(m.group(1));
+		}
+	}
+
+	/**
+	 * Method to drop every result reading a table.
+	 */
+	public synchronized void invalidate(String table) {
+		table = table.toLowerCase(Locale.ROOT);
+		++this._generation;
+		Iterator<Entry> it = this._entries.values().iterator();
+		while (it.hasNext()) {
+			for (String t : it.next().tables) {
+				if (t.equals(table)) {
+					it.remove();
+					break;
+				}
+			}
+		}
+	}//end invalidate
+
+	/**
+	 * Method to drop every result, e.g. after a bulk load.
+	 */
+	public synchronized void clear() {
+		++this._generation;
+		this._entries.clear();
+	}
+
+	public synchronized long getHits() {
+		return this._hits;
+	}
+
+	public synchronized long getMisses() {
+		return this._misses;
+	}
+}
@@ -0,0 +1,317 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * This class holds the result of a query column by column.  Every value is
+ * decoded once when the rows are read: integer columns go straight into an
+ * int[] or long[], DATE columns are stored as epoch days in an int[], and
+ * everything else is kept as a String[].  Rows and columns are numbered from 0.
+ *
+ */
+
+public class ResultTable {
+	static final int STRING = 0;
+	static final int INT = 1;
+	static final int LONG = 2;
+	static final int DATE = 3;
+
+	private final String[] _names;
+	private final int[] _types;
+	//one int[], long[] or String[] per column depending on its type
+	private final Object[] _columns;
+	//null markers for the primitive columns, allocated on the first null seen
+	private final boolean[][] _nulls;
+	private int _rows = 0;
+
+	ResultTable(String[] names, int[] types, int capacity) {
+		this._names = names;
+		this._types = types;
+		this._columns = new Object[names.length];
+		this._nulls = new boolean[names.length][];
+		capacity = Math.max(capacity, 8);
+		for (int c = 0; c < names.length; ++c) {
+			switch (types[c]) {
+				case INT: case DATE: this._columns[c] = new int[capacity]; break;
+				case LONG: this._columns[c] = new long[capacity]; break;
+				default: this._columns[c] = new String[capacity]; break;
+			}
+		}
+	}
+
+	/**
+	 * Method to read every remaining row of a result set into a new table.
+	 *
+	 * @param rs the result set to drain
+	 * @return the decoded rows
+	 * @throws java.sql.SQLException when a value could not be read
+	 */
+	static ResultTable read(ResultSet rs) throws SQLException {
+		ResultTable table = empty(rs.getMetaData());
+		while (rs.next()) {
+			table.appendRow(rs);
+		}
+		return table;
+	}//end read
+
+	/**
+	 * Method to create a table with the columns of a result set and no
+	 * rows, for a caller that adds the rows itself with appendRow().
+	 *
+	 * @param rsmd the columns of the result set
+	 * @return the empty table
+	 * @throws java.sql.SQLException when the columns could not be read
+	 */
+	static ResultTable empty(ResultSetMetaData rsmd) throws SQLException {
+		int numCol = rsmd.getColumnCount();
+		String[] names = new String[numCol];
+		int[] types = new int[numCol];
+		for (int c = 0; c < numCol; ++c) {
+			names[c] = rsmd.getColumnName(c + 1);
+			types[c] = typeOf(rsmd.getColumnType(c + 1));
+		}
+		return new ResultTable(names, types, 16);
+	}//end empty
+
+	/**
+	 * Method to append a row built in memory rather than read from the
+	 * database.  INT and LONG values are Numbers, DATE values LocalDates and
+	 * STRING values are stored as their toString(); null marks a NULL.
+	 *
+	 * @param values one value per column, in column order
+	 */
+	void addRow(Object... values) {
+		if (values.length != this._names.length) {
+			throw new IllegalArgumentException("expected " + this._names.length + " values, got " + values.length);
+		}
+		ensureCapacity(this._rows + 1);
+		int r = this._rows;
+		for (int c = 0; c < values.length; ++c) {
+			Object v = values[c];
+			if (v == null) {
+				if (this._types[c] != STRING) {
+					markNull(c, r);
+				}
+				continue;
+			}
+			switch (this._types[c]) {
+				case INT: ((int[]) this._columns[c])[r] = ((Number) v).intValue(); break;
+				case LONG: ((long[]) this._columns[c])[r] = ((Number) v).longValue(); break;
+				case DATE: ((int[]) this._columns[c])[r] = (int) ((LocalDate) v).toEpochDay(); break;
+				default: ((String[]) this._columns[c])[r] = v.toString(); break;
+			}
+		}
+		++this._rows;
+	}//end addRow
+
+	private static int typeOf(int sqlType) {
+		switch (sqlType) {
+			case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT: return INT;
+			case Types.BIGINT: return LONG;
+			case Types.DATE: return DATE;
+			default: return STRING;
+		}
+	}
+
+	/**
+	 * Method to append the current row of a result set.
+	 */
+	void appendRow(ResultSet rs) throws SQLException {
+		ensureCapacity(this._rows + 1);
+		int r = this._rows;
+		for (int c = 0; c < this._names.length; ++c) {
+			switch (this._types[c]) {
+				case INT:
+					((int[]) this._columns[c])[r] = rs.getInt(c + 1);
+					if (rs.wasNull()) markNull(c, r);
+					break;
+				case LONG:
+					((long[]) this._columns[c])[r] = rs.getLong(c + 1);
+					if (rs.wasNull()) markNull(c, r);
+					break;
+				case DATE:
+					java.sql.Date d = rs.getDate(c + 1);
+					if (d == null) {
+						markNull(c, r);
+					} else {
+						((int[]) this._columns[c])[r] = (int) d.toLocalDate().toEpochDay();
+					}
+					break;
+				default:
+					((String[]) this._columns[c])[r] = rs.getString(c + 1);
+					break;
+			}
+		}
+		++this._rows;
+	}//end appendRow
+
+	private void ensureCapacity(int rows) {
+		int capacity = capacity();
+		if (rows <= capacity) {
+			return;
+		}
+		int newCapacity = Math.max(rows, capacity + (capacity >> 1));
+		for (int c = 0; c < this._columns.length; ++c) {
+			Object col = this._columns[c];
+			if (col instanceof int[]) {
+				this._columns[c] = Arrays.copyOf((int[]) col, newCapacity);
+			} else if (col instanceof long[]) {
+				this._columns[c] = Arrays.copyOf((long[]) col, newCapacity);
+			} else {
+				this._columns[c] = Arrays.copyOf((String[]) col, newCapacity);
+			}
+			if (this._nulls[c] != null) {
+				this._nulls[c] = Arrays.copyOf(this._nulls[c], newCapacity);
+			}
+		}
+	}//end ensureCapacity
+
+	private int capacity() {
+		if (this._columns.length == 0) {
+			return Integer.MAX_VALUE;
+		}
+		Object col = this._columns[0];
+		if (col instanceof int[]) return ((int[]) col).length;
+		if (col instanceof long[]) return ((long[]) col).length;
+		return ((String[]) col).length;
+	}
+
+	private void markNull(int c, int r) {
+		if (this._nulls[c] == null) {
+			this._nulls[c] = new boolean[capacity()];
+		}
+		this._nulls[c][r] = true;
+	}
+
+	/**
+	 * @return the number of rows in the table
+	 */
+	public int size() {
+		return this._rows;
+	}
+
+	/**
+	 * @return the number of columns in the table
+	 */
+	public int columnCount() {
+		return this._names.length;
+	}
+
+	/**
+	 * @param col the column number
+	 * @return the column name reported by the database
+	 */
+	public String columnName(int col) {
+		return this._names[col];
+	}
+
+	/**
+	 * Method to find a column by its name, ignoring case.
+	 *
+	 * @param name the column name
+	 * @return the column number
+	 * @throws java.lang.IllegalArgumentException when no column has that name
+	 */
+	public int columnIndex(String name) {
+		for (int c = 0; c < this._names.length; ++c) {
+			if (this._names[c].equalsIgnoreCase(name)) {
+				return c;
+			}
+		}
+		throw new IllegalArgumentException("No column named " + name);
+	}//end columnIndex
+
+	public boolean isNull(int row, int col) {
+		checkRow(row);
+		boolean[] nulls = this._nulls[col];
+		if (nulls != null) {
+			return nulls[row];
+		}
+		return this._types[col] == STRING && ((String[]) this._columns[col])[row] == null;
+	}
+
+	public int getInt(int row, int col) {
+		checkRow(row);
+		Object column = this._columns[col];
+		if (column instanceof int[] && this._types[col] == INT) {
+			return ((int[]) column)[row];
+		}
+		if (column instanceof long[]) {
+			return Math.toIntExact(((long[]) column)[row]);
+		}
+		throw new IllegalStateException("Column " + this._names[col] + " is not an integer column");
+	}
+
+	public int getInt(int row, String name) {
+		return getInt(row, columnIndex(name));
+	}
+
+	public long getLong(int row, int col) {
+		checkRow(row);
+		Object column = this._columns[col];
+		if (column instanceof long[]) {
+			return ((long[]) column)[row];
+		}
+		if (column instanceof int[] && this._types[col] == INT) {
+			return ((int[]) column)[row];
+		}
+		throw new IllegalStateException("Column " + this._names[col] + " is not an integer column");
+	}
+
+	public long getLong(int row, String name) {
+		return getLong(row, columnIndex(name));
+	}
+
+	/**
+	 * @return the value of a DATE column as the number of days since 1970-01-01
+	 */
+	public int getEpochDay(int row, int col) {
+		checkRow(row);
+		if (this._types[col] != DATE) {
+			throw new IllegalStateException("Column " + this._names[col] + " is not a date column");
+		}
+		return ((int[]) this._columns[col])[row];
+	}
+
+	public int getEpochDay(int row, String name) {
+		return getEpochDay(row, columnIndex(name));
+	}
+
+	public LocalDate getDate(int row, int col) {
+		return isNull(row, col) ? null : LocalDate.ofEpochDay(getEpochDay(row, col));
+	}
+
+	public LocalDate getDate(int row, String name) {
+		return getDate(row, columnIndex(name));
+	}
+
+	/**
+	 * Method to read any value as text, formatted the way the database would
+	 * print it.  Only string columns avoid allocating here.
+	 */
+	public String getString(int row, int col) {
+		checkRow(row);
+		if (isNull(row, col)) {
+			return null;
+		}
+		switch (this._types[col]) {
+			case INT: return Integer.toString(((int[]) this._columns[col])[row]);
+			case LONG: return Long.toString(((long[]) this._columns[col])[row]);
+			case DATE: return LocalDate.ofEpochDay(((int[]) this._columns[col])[row]).toString();
+			default: return ((String[]) this._columns[col])[row];
+		}
+	}
+
+	public String getString(int row, String name) {
+		return getString(row, columnIndex(name));
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= this._rows) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + this._rows);
+		}
+	}
+}
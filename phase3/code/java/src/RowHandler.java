@@ -0,0 +1,17 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Callback used by MechanicShop.executeQueryStreaming.  It is invoked once per
+ * row while the cursor is positioned on that row, so the caller can read the
+ * values it needs without the whole result ever being held in memory.
+ *
+ */
+
+public interface RowHandler {
+	/**
+	 * @param rs the result set, positioned on the current row
+	 * @throws java.sql.SQLException when a value could not be read
+	 */
+	void handleRow(ResultSet rs) throws SQLException;
+}
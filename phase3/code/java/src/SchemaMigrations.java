@@ -0,0 +1,261 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class brings the schema of an existing database up to date.  Each
+ * migration has a version number and runs in its own transaction together
+ * with the row recording it in schema_migrations, so a migration is applied
+ * exactly once and a failed one leaves nothing behind.  New migrations are
+ * appended to MIGRATIONS with the next version number; applied ones are
+ * never edited.
+ *
+ * Migrations can also be files named V<version>__<description>.sql in the
+ * migrations directory (the system property mechanicshop.migrations.dir,
+ * "migrations" by default), holding statements ended by ';' and '--'
+ * comments.  IndexAdvisor's proposals are written there by write(), so they
+ * can be reviewed and are then applied by --migrate like the others.
+ *
+ */
+
+public class SchemaMigrations {
+	/**
+	 * One versioned set of DDL statements.
+	 */
+	static final class Migration {
+		final int version;
+		final String description;
+		final String[] statements;
+
+		Migration(int version, String description, String... statements) {
+			this.version = version;
+			this.description = description;
+			this.statements = statements;
+		}
+	}
+
+	static final Migration[] MIGRATIONS = {
+		new Migration(1, "index the columns the shop filters and joins on, drop the indexes duplicating primary keys",
+			// customer lookups by last name in AddCar and InsertServiceRequest
+			"CREATE INDEX IF NOT EXISTS customer_lname ON Customer(lname)",
+			// owned cars of a customer, and the owner of a car
+			"CREATE INDEX IF NOT EXISTS owns_customer_id ON Owns(customer_id)",
+			"CREATE INDEX IF NOT EXISTS owns_car_vin ON Owns(car_vin)",
+			// service history of a car or a customer, reports 8 and 9
+			"CREATE INDEX IF NOT EXISTS service_request_car_vin ON Service_Request(car_vin)",
+			"CREATE INDEX IF NOT EXISTS service_request_customer_id ON Service_Request(customer_id)",
+			// closing lookups and the bill totals
+			"CREATE INDEX IF NOT EXISTS closed_request_rid ON Closed_Request(rid)",
+			// report 6 only ever reads the bills under 100
+			"CREATE INDEX IF NOT EXISTS closed_request_bill_lt_100 ON Closed_Request(bill) WHERE bill < 100",
+			// same columns as the primary keys, which are indexed already
+			"DROP INDEX IF EXISTS customerID",
+			"DROP INDEX IF EXISTS mechanicID",
+			"DROP INDEX IF EXISTS carVin",
+			"DROP INDEX IF EXISTS srID")
+	};
+
+	//the name of a migration file
+	private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+
+	private final ConnectionPool _pool;
+	private final File _dir = new File(System.getProperty("mechanicshop.migrations.dir", "migrations"));
+
+	SchemaMigrations(ConnectionPool pool) {
+		this._pool = pool;
+	}
+
+	/**
+	 * @return the built-in migrations and those of the migrations
+	 *         directory, in version order
+	 * @throws java.sql.SQLException when a migration file could not be read
+	 *         or reuses a version
+	 */
+	List<Migration> all() throws SQLException {
+		List<Migration> all = new ArrayList<Migration>();
+		Collections.addAll(all, MIGRATIONS);
+		File[] files = this._dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				Matcher name = FILE_NAME.matcher(file.getName());
+				if (name.matches()) {
+					all.add(read(file, Integer.parseInt(name.group(1)), name.group(2).replace('_', ' ')));
+				}
+			}
+		}
+		Collections.sort(all, new Comparator<Migration>() {
+			public int compare(Migration a, Migration b) {
+				return Integer.compare(a.version, b.version);
+			}
+		});
+		for (int i = 1; i < all.size(); ++i) {
+			if (all.get(i).version == all.get(i - 1).version) {
+				throw new SQLException("Migration version " + all.get(i).version + " is defined twice");
+			}
+		}
+		return all;
+	}//end all
+
+	private static Migration read(File file, int version, String description) throws SQLException {
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new SQLException("Could not read migration " + file + ": " + e.getMessage());
+		}
+		StringBuilder sql = new StringBuilder();
+		for (String line : lines) {
+			int comment = line.indexOf("--");
+			sql.append(comment < 0 ? line : line.substring(0, comment)).append('\n');
+		}
+		List<String> statements = new ArrayList<String>();
+		for (String statement : sql.toString().split(";")) {
+			if (!statement.trim().isEmpty()) {
+				statements.add(statement.trim());
+			}
+		}
+		return new Migration(version, description, statements.toArray(new String[0]));
+	}//end read
+
+	/**
+	 * Method to write statements as a new migration file, numbered after
+	 * every known and applied migration.  Nothing is applied.
+	 *
+	 * @param description what the migration does, used in the file name
+	 * @param statements the statements, each ended by ';' and optionally
+	 *        followed by a '--' comment
+	 * @return the file written
+	 * @throws java.sql.SQLException when the versions could not be read
+	 * @throws java.io.IOException when the file could not be written
+	 */
+	public File write(String description, List<String> statements) throws SQLException, IOException {
+		int version = 0;
+		for (Migration m : all()) {
+			version = Math.max(version, m.version);
+		}
+		for (int applied : applied()) {
+			version = Math.max(version, applied);
+		}
+		++version;
+
+		if (!this._dir.isDirectory() && !this._dir.mkdirs()) {
+			throw new IOException("Could not create " + this._dir);
+		}
+		String name = description.trim().toLowerCase(Locale.ROOT).replaceAll("\\W+", "_");
+		File file = new File(this._dir, "V" + version + "__" + name + ".sql");
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+		try {
+			out.write("-- " + description + System.lineSeparator());
+			for (String statement : statements) {
+				out.write(statement + System.lineSeparator());
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}//end write
+
+	/**
+	 * @return the number of migrations that have not been applied yet
+	 * @throws java.sql.SQLException when failed to read the applied versions
+	 */
+	public int pending() throws SQLException {
+		Set<Integer> applied = applied();
+		int pending = 0;
+		for (Migration m : all()) {
+			if (!applied.contains(m.version)) {
+				++pending;
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Method to apply every migration not applied yet, in version order.
+	 *
+	 * @return the number of migrations applied
+	 * @throws java.sql.SQLException when a migration failed, the ones before
+	 *         it stay applied
+	 */
+	public int migrate() throws SQLException {
+		Set<Integer> applied = applied();
+		int count = 0;
+		for (Migration m : all()) {
+			if (applied.contains(m.version)) {
+				continue;
+			}
+			long start = System.nanoTime();
+			apply(m);
+			System.out.printf("Applied V%d (%s) in %.2f s%n", m.version, m.description, (System.nanoTime() - start) / 1e9);
+			++count;
+		}
+		return count;
+	}//end migrate
+
+	private void apply(Migration m) throws SQLException {
+		PooledConnection pc = this._pool.borrow();
+		Connection conn = pc.getConnection();
+		try {
+			conn.setAutoCommit(false);
+			Statement stmt = conn.createStatement();
+			try {
+				for (String sql : m.statements) {
+					stmt.execute(sql);
+				}
+				stmt.execute("INSERT INTO schema_migrations(version, description) VALUES (" + m.version + ", '" + m.description.replace("'", "''") + "')");
+			} finally {
+				stmt.close();
+			}
+			conn.commit();
+			conn.setAutoCommit(true);
+		} catch (SQLException e) {
+			pc.checkBroken(e);
+			throw e;
+		} finally {
+			// rolls back whatever was not committed
+			this._pool.release(pc);
+		}
+	}//end apply
+
+	private Set<Integer> applied() throws SQLException {
+		PooledConnection pc = this._pool.borrow();
+		try {
+			Statement stmt = pc.getConnection().createStatement();
+			try {
+				stmt.execute("CREATE TABLE IF NOT EXISTS schema_migrations (version INTEGER NOT NULL PRIMARY KEY, " +
+					"description TEXT NOT NULL, applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)");
+				Set<Integer> versions = new HashSet<Integer>();
+				ResultSet rs = stmt.executeQuery("SELECT version FROM schema_migrations");
+				while (rs.next()) {
+					versions.add(rs.getInt(1));
+				}
+				rs.close();
+				return versions;
+			} finally {
+				stmt.close();
+			}
+		} catch (SQLException e) {
+			pc.checkBroken(e);
+			throw e;
+		} finally {
+			this._pool.release(pc);
+		}
+	}//end applied
+}
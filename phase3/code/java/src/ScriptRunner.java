@@ -0,0 +1,392 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class runs MechanicShop operations from a script instead of the
+ * interactive menu, e.g. to replay a day of front desk traffic or to apply a
+ * dealer update.  Each line holds one command with its fields separated by
+ * '|'; blank lines and lines starting with '#' are skipped:
+ *
+ *   customer|fname|lname|phone|address
+ *   mechanic|fname|lname|experience
+ *   car|customer_id|vin|make|model|year
+ *   request|customer_id|vin|odometer|complaint
+ *   close|rid|mid|bill|comment
+ *   report|6..10[|k]
+ *   export|6..10|file[|k]
+ *   resync
+ *
+ * A customer_id of '-' refers to the last customer added by the script, and
+ * a rid of '-' to the last service request it inserted.
+ *
+ * Writes are queued and committed together every batchSize commands.  Pending
+ * writes are flushed before any command that reads from the database, so a
+ * script always sees its own changes.  A summary with throughput and
+ * per-command latencies is printed at the end.
+ *
+ * Lines are read ahead up to batchSize at a time, as far as they can be read
+ * without waiting, and the customer ids named by their car and request
+ * commands are checked with one existsMany() probe, so a command naming an
+ * unknown customer is rejected before it can fail the commit of its batch.
+ *
+ */
+
+public class ScriptRunner {
+	private final MechanicShop _esql;
+	private final int _batchSize;
+	private final WriteBatch _batch;
+	//commands queued on the batch since the last flush
+	private int _pending = 0;
+	private int _flushes = 0;
+	//commands that succeeded but were rolled back with a failed commit
+	private int _lost = 0;
+	private int _lastCustomer = -1;
+	private int _lastRequest = -1;
+	//customers known to exist, refreshed for every window of lines read ahead
+	private final Set<Integer> _customers = new HashSet<Integer>();
+	//"customer|vin" of the cars queued since the last flush, not visible to queries yet
+	private final Set<String> _queuedCars = new HashSet<String>();
+	private final Map<String, Latencies> _latencies = new LinkedHashMap<String, Latencies>();
+
+	//growable list of command latencies in nanoseconds
+	private static final class Latencies {
+		long[] nanos = new long[64];
+		int count = 0;
+		int failed = 0;
+
+		void add(long n) {
+			if (count == nanos.length) {
+				nanos = Arrays.copyOf(nanos, count * 2);
+			}
+			nanos[count++] = n;
+		}
+	}
+
+	public ScriptRunner(MechanicShop esql, int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batch size must be positive");
+		}
+		this._esql = esql;
+		this._batchSize = batchSize;
+		this._batch = esql.newBatch();
+	}
+
+	/**
+	 * Method to run every command of a script file, or of standard input when
+	 * the file name is "-".
+	 *
+	 * @param file the script file name
+	 * @return the number of commands that failed
+	 * @throws java.io.IOException when the script could not be read
+	 */
+	public int run(String file) throws IOException {
+		Reader reader = file.equals("-") ? new InputStreamReader(System.in) : new FileReader(file);
+		BufferedReader script = new BufferedReader(reader, 1 << 16);
+		long start = System.nanoTime();
+		int lineNumber = 0;
+		int failed = 0;
+		try {
+			List<String> window = new ArrayList<String>();
+			int[] numbers = new int[this._batchSize];
+			String line;
+			while ((line = script.readLine()) != null) {
+				++lineNumber;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				numbers[window.size()] = lineNumber;
+				window.add(line);
+				// an interactive script never waits for lines it has not typed yet
+				if (window.size() == this._batchSize || !script.ready()) {
+					failed += execute(window, numbers);
+					window.clear();
+				}
+			}
+			failed += execute(window, numbers);
+			flush(lineNumber);
+		} finally {
+			script.close();
+		}
+		failed += this._lost;
+		printSummary(System.nanoTime() - start, failed);
+		return failed;
+	}//end run
+
+	/**
+	 * Method to run a window of lines read ahead, after checking the
+	 * customers they name in one round trip.
+	 *
+	 * @return the number of commands that failed
+	 */
+	private int execute(List<String> window, int[] numbers) {
+		prefetchCustomers(window);
+		int failed = 0;
+		for (int i = 0; i < window.size(); ++i) {
+			if (!execute(numbers[i], window.get(i))) {
+				++failed;
+			}
+		}
+		return failed;
+	}
+
+	private void prefetchCustomers(List<String> window) {
+		this._customers.clear();
+		List<Integer> ids = new ArrayList<Integer>();
+		for (String line : window) {
+			String[] f = line.split("\\|", -1);
+			String command = f[0].trim().toLowerCase();
+			if ((command.equals("car") || command.equals("request")) && f.length > 1) {
+				try {
+					ids.add(Integer.parseInt(f[1].trim()));
+				} catch (NumberFormatException e) {
+					// '-' or a bad id, left to the command itself
+				}
+			}
+		}
+		if (ids.isEmpty()) {
+			return;
+		}
+		try {
+			boolean[] found = this._esql.existsMany("Customer", ids);
+			for (int i = 0; i < found.length; ++i) {
+				if (found[i]) {
+					this._customers.add(ids.get(i));
+				}
+			}
+		} catch (SQLException e) {
+			// every command then checks its customer by itself
+			System.out.println("Could not check the customers of the next commands: " + e.getMessage());
+		}
+	}//end prefetchCustomers
+
+	private boolean execute(int lineNumber, String line) {
+		String[] f = line.split("\\|", -1);
+		String command = f[0].trim().toLowerCase();
+		for (int i = 0; i < f.length; ++i) {
+			f[i] = f[i].trim();
+		}
+
+		long start = System.nanoTime();
+		boolean ok = false;
+		try {
+			ok = dispatch(command, f);
+			if (!ok) {
+				System.out.println("Line " + lineNumber + ": invalid " + command + " command: " + line);
+			}
+		} catch (Exception e) {
+			// a failed commit already dropped its batch, anything else queued nothing
+			System.out.println("Line " + lineNumber + ": " + command + " failed: " + e.getMessage());
+		}
+		record(command, System.nanoTime() - start, ok);
+
+		if (ok && this._pending >= this._batchSize) {
+			// a failed commit counts the commands it dropped, this one included
+			flush(lineNumber);
+		}
+		return ok;
+	}//end execute
+
+	/**
+	 * Method to validate and run one command.
+	 *
+	 * @return false when the command or its fields are invalid
+	 */
+	private boolean dispatch(String command, String[] f) throws Exception {
+		if (command.equals("customer") && f.length == 5) {
+			if (!MechanicShop.validateName(f[1]) || !MechanicShop.validateName(f[2]) || !MechanicShop.validatePhone(f[3]) || !MechanicShop.validateAddress(f[4])) {
+				return false;
+			}
+			int id = Integer.parseInt(this._esql.ID("Customer"));
+			ShopOperations.addCustomer(this._esql, this._batch, id, f[1], f[2], f[3], f[4]);
+			this._lastCustomer = id;
+			++this._pending;
+		} else if (command.equals("mechanic") && f.length == 4) {
+			if (!MechanicShop.validateName(f[1]) || !MechanicShop.validateName(f[2]) || !MechanicShop.validateYears(f[3])) {
+				return false;
+			}
+			int id = Integer.parseInt(this._esql.ID("Mechanic"));
+			ShopOperations.addMechanic(this._esql, this._batch, id, f[1], f[2], Integer.parseInt(f[3]));
+			++this._pending;
+		} else if (command.equals("car") && f.length == 6) {
+			String vin = f[2].toUpperCase();
+			if (!MechanicShop.validateCar(vin, 1) || !MechanicShop.validateCar(f[3], 2) || !MechanicShop.validateCar(f[4], 3) || !MechanicShop.validateCar(f[5], 4)
+					|| !Validator.report(Validator.CAR_YEAR, f[5])) {
+				return false;
+			}
+			int customerID = existingCustomer(f[1]);
+			ShopOperations.addCar(this._esql, this._batch, customerID, vin, f[3], f[4], Integer.parseInt(f[5]));
+			this._queuedCars.add(customerID + "|" + vin);
+			++this._pending;
+		} else if (command.equals("request") && f.length == 5) {
+			if (!MechanicShop.validateCar(f[2].toUpperCase(), 1) || !Validator.report(Validator.ODOMETER, f[3])) {
+				return false;
+			}
+			int customerID = existingCustomer(f[1]);
+			String vin = f[2].toUpperCase();
+			if (!owns(customerID, vin)) {
+				throw new IllegalArgumentException("Customer ID " + customerID + " does not own car " + vin);
+			}
+			int rid = Integer.parseInt(this._esql.ID("Service_Request"));
+			ShopOperations.insertServiceRequest(this._esql, this._batch, rid, customerID, vin, Integer.parseInt(f[3]), f[4]);
+			this._lastRequest = rid;
+			++this._pending;
+		} else if (command.equals("close") && f.length == 5) {
+			if (!MechanicShop.validateBill(f[3])) {
+				return false;
+			}
+			// the request may still be sitting in the batch
+			flushPending();
+			int rid = f[1].equals("-") ? this._lastRequest : Integer.parseInt(f[1]);
+			LocalDate today = LocalDate.now();
+			int mid = Integer.parseInt(f[2]);
+			String error = ShopOperations.checkClosable(this._esql, rid, mid, today);
+			if (error != null) {
+				throw new IllegalArgumentException(error);
+			}
+			int wid = Integer.parseInt(this._esql.ID("Closed_Request"));
+			ShopOperations.closeServiceRequest(this._esql, this._batch, wid, rid, mid, today, f[4], Integer.parseInt(f[3]));
+			++this._pending;
+		} else if (command.equals("report") && (f.length == 2 || f.length == 3)) {
+			flushPending();
+			int report = Integer.parseInt(f[1]);
+			int k = f.length == 3 ? Integer.parseInt(f[2]) : 0;
+			ShopOperations.printReport(this._esql, report, k);
+		} else if (command.equals("resync") && f.length == 1) {
+			// read the service request counts behind report 9, the customer names and the bill totals again
+			flushPending();
+			this._esql.getServiceCounts().resync();
+			this._esql.getCustomerNames().invalidate();
+			ShopOperations.refreshBillTotals(this._esql);
+		} else if (command.equals("export") && (f.length == 3 || f.length == 4) && !f[2].isEmpty()) {
+			flushPending();
+			int report = Integer.parseInt(f[1]);
+			int k = f.length == 4 ? Integer.parseInt(f[3]) : 0;
+			long rows = ShopOperations.exportReport(this._esql, report, k, new java.io.File(f[2]));
+			System.out.println("Exported " + rows + " rows of report " + report + " to " + f[2]);
+		} else {
+			return false;
+		}
+		return true;
+	}//end dispatch
+
+	private int customer(String field) {
+		return field.equals("-") ? this._lastCustomer : Integer.parseInt(field);
+	}
+
+	//whether the customer owns the car, queued by this batch or committed
+	private boolean owns(int customerID, String vin) throws SQLException {
+		return this._queuedCars.contains(customerID + "|" + vin)
+			|| this._esql.executeQuery("SELECT 1 FROM Owns WHERE customer_id = ? AND car_vin = ?", customerID, vin) > 0;
+	}
+
+	//a customer of the script itself, or one that was found in the database
+	private int existingCustomer(String field) throws SQLException {
+		int id = customer(field);
+		if (id < 0) {
+			throw new IllegalArgumentException("no customer was added yet");
+		}
+		if (!field.equals("-") && !this._customers.contains(id)) {
+			if (!this._esql.exists("Customer", id)) {
+				throw new IllegalArgumentException("Customer ID " + id + " not found");
+			}
+			this._customers.add(id);
+		}
+		return id;
+	}
+
+	/**
+	 * Method to commit the queued commands.  When the commit fails they are
+	 * rolled back, so they are dropped from the batch and counted as failed.
+	 *
+	 * @throws java.sql.SQLException when the commit failed
+	 */
+	private void flushPending() throws java.sql.SQLException {
+		if (this._pending > 0) {
+			++this._flushes;
+			try {
+				this._batch.flush();
+			} catch (java.sql.SQLException e) {
+				System.out.println(this._pending + " queued commands were rolled back");
+				this._lost += this._pending;
+				this._batch.clear();
+				throw e;
+			} finally {
+				this._pending = 0;
+				this._queuedCars.clear();
+			}
+		}
+	}
+
+	private boolean flush(int lineNumber) {
+		long start = System.nanoTime();
+		try {
+			flushPending();
+			record("(commit)", System.nanoTime() - start, true);
+			return true;
+		} catch (Exception e) {
+			System.out.println("Line " + lineNumber + ": commit of the last batch failed: " + e.getMessage());
+			record("(commit)", System.nanoTime() - start, false);
+			return false;
+		}
+	}//end flush
+
+	private void record(String command, long nanos, boolean ok) {
+		Latencies l = this._latencies.get(command);
+		if (l == null) {
+			l = new Latencies();
+			this._latencies.put(command, l);
+		}
+		if (ok) {
+			l.add(nanos);
+		} else {
+			++l.failed;
+		}
+	}
+
+	private void printSummary(long elapsedNanos, int failed) {
+		int total = 0;
+		for (Map.Entry<String, Latencies> e : this._latencies.entrySet()) {
+			if (!e.getKey().equals("(commit)")) {
+				total += e.getValue().count + e.getValue().failed;
+			}
+		}
+		double seconds = elapsedNanos / 1e9;
+
+		System.out.println("===================================================");
+		System.out.println(" SCRIPT SUMMARY");
+		System.out.println("===================================================");
+		System.out.printf("%d commands, %d failed, %d commits (batch size %d)%n", total, failed, this._flushes, this._batchSize);
+		System.out.printf("%.3f s elapsed, %.1f commands/s%n", seconds, seconds > 0 ? total / seconds : 0.0);
+		System.out.printf("%-10s %8s %8s %10s %10s %10s%n", "command", "ok", "failed", "p50 ms", "p99 ms", "max ms");
+		for (Map.Entry<String, Latencies> e : this._latencies.entrySet()) {
+			Latencies l = e.getValue();
+			long[] sorted = Arrays.copyOf(l.nanos, l.count);
+			Arrays.sort(sorted);
+			System.out.printf("%-10s %8d %8d %10.3f %10.3f %10.3f%n", e.getKey(), l.count, l.failed,
+				percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6, (sorted.length == 0 ? 0 : sorted[sorted.length - 1]) / 1e6);
+		}
+		System.out.println(this._esql.entityCacheStats());
+		System.out.println("===================================================");
+	}//end printSummary
+
+	private static long percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+}
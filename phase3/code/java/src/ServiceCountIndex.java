@@ -0,0 +1,192 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * This class answers report 9 (the k cars with the most service requests)
+ * from memory.  It keeps the number of service requests of every car that
+ * has any, together with its make and model, in a hash map for updates and
+ * in a set sorted by count for the report, so recording a request costs
+ * O(log n) and the report for any k only walks the first k entries.
+ *
+ * The counts are read with one streaming scan the first time they are
+ * needed and then kept current by ShopOperations.insertServiceRequest.
+ * Requests written by other clients are not seen until the counts are read
+ * again: explicitly with resync(), or by the first report after they are
+ * older than a time to live.  Any failure while recording a request makes
+ * the next read resync by itself.
+ *
+ * Every scan starts a new generation.  A writer takes the generation before
+ * its insert can be committed and hands it to requestAdded(); if a scan
+ * started in between, the scan may already have counted the request, so the
+ * counts are read again instead of counting it twice.
+ *
+ */
+
+public class ServiceCountIndex {
+	private static final String SCAN_QUERY =
+		"SELECT C.vin, C.make, C.model, COUNT(S.rid) FROM Car AS C, Service_Request AS S WHERE S.car_vin = C.vin GROUP BY C.vin, C.make, C.model";
+	private static final String CAR_QUERY = "SELECT make, model FROM Car WHERE vin = ?";
+	//the columns of report 9
+	private static final String[] COLUMNS = { "make", "model", "creq" };
+	private static final int[] TYPES = { ResultTable.STRING, ResultTable.STRING, ResultTable.LONG };
+
+	private static final class CarCount {
+		final String vin;
+		final String make;
+		final String model;
+		long count;
+
+		CarCount(String vin, String make, String model, long count) {
+			this.vin = vin;
+			this.make = make;
+			this.model = model;
+			this.count = count;
+		}
+	}
+
+	//most requests first, ties by vin so every car has its own place
+	private static final Comparator<CarCount> BY_COUNT = new Comparator<CarCount>() {
+		public int compare(CarCount a, CarCount b) {
+			if (a.count != b.count) {
+				return a.count > b.count ? -1 : 1;
+			}
+			return a.vin.compareTo(b.vin);
+		}
+	};
+
+	private final MechanicShop _esql;
+	private final Map<String, CarCount> _cars = new HashMap<String, CarCount>();
+	private final TreeSet<CarCount> _ranked = new TreeSet<CarCount>(BY_COUNT);
+	private final long _ttlNanos = Long.getLong("mechanicshop.serviceCounts.ttlMs", 60000L) * 1000000L;
+	private boolean _loaded = false;
+	private long _loadedAt = 0;
+	//bumped by every scan, see requestAdded()
+	private long _generation = 0;
+
+	ServiceCountIndex(MechanicShop esql) {
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to list the cars with the most service requests.
+	 *
+	 * @param k the number of cars, must be positive
+	 * @return make, model and request count (creq) of at most k cars
+	 * @throws java.sql.SQLException when the counts had to be read and failed
+	 */
+	public synchronized ResultTable top(int k) throws SQLException {
+		if (k <= 0) {
+			throw new IllegalArgumentException("k must be larger than 0");
+		}
+		if (!this._loaded || System.nanoTime() - this._loadedAt > this._ttlNanos) {
+			resync();
+		}
+		ResultTable table = new ResultTable(COLUMNS, TYPES, Math.min(k, this._ranked.size()));
+		Iterator<CarCount> it = this._ranked.iterator();
+		for (int i = 0; i < k && it.hasNext(); ++i) {
+			CarCount c = it.next();
+			table.addRow(c.make, c.model, c.count);
+		}
+		return table;
+	}//end top
+
+	/**
+	 * Method to read every count from the database again.
+	 *
+	 * @throws java.sql.SQLException when failed to read the counts
+	 */
+	public synchronized void resync() throws SQLException {
+		invalidate();
+		++this._generation;
+		this._loadedAt = System.nanoTime();
+		this._esql.executeQueryStreaming(SCAN_QUERY, new RowHandler() {
+			public void handleRow(ResultSet rs) throws SQLException {
+				CarCount c = new CarCount(rs.getString(1), rs.getString(2), rs.getString(3), rs.getLong(4));
+				_cars.put(c.vin, c);
+				_ranked.add(c);
+			}
+		});
+		this._loaded = true;
+	}//end resync
+
+	/**
+	 * Method to drop the counts so they are read again when next needed.
+	 */
+	public synchronized void invalidate() {
+		this._cars.clear();
+		this._ranked.clear();
+		this._loaded = false;
+	}
+
+	/**
+	 * @return the generation a writer passes to requestAdded(), taken
+	 *         before its insert can be committed
+	 */
+	public synchronized long generation() {
+		return this._generation;
+	}
+
+	/**
+	 * Method to count a service request that was just committed.  A car
+	 * seen for the first time has its make and model read from Car.
+	 *
+	 * @param vin the car the request is for
+	 * @param generation the value of generation() before the insert
+	 * @throws java.sql.SQLException when the car could not be read, the
+	 *         counts are then dropped
+	 */
+	public void requestAdded(String vin, long generation) throws SQLException {
+		synchronized (this) {
+			if (!current(generation)) {
+				return;
+			}
+			CarCount c = this._cars.get(vin);
+			if (c != null) {
+				this._ranked.remove(c);
+				++c.count;
+				this._ranked.add(c);
+				return;
+			}
+		}
+
+		// first request of this car, read it without holding the lock
+		ResultTable car;
+		try {
+			car = this._esql.executeQueryAndReturnTable(CAR_QUERY, vin);
+		} catch (SQLException e) {
+			invalidate();
+			throw e;
+		}
+		synchronized (this) {
+			if (!current(generation)) {
+				return;
+			}
+			CarCount c = this._cars.get(vin);
+			if (c == null && car.size() == 1) {
+				c = new CarCount(vin, car.getString(0, "make"), car.getString(0, "model"), 0);
+				this._cars.put(vin, c);
+			}
+			if (c == null) {
+				// the insert would have failed without the car, read everything again
+				invalidate();
+				return;
+			}
+			this._ranked.remove(c);
+			++c.count;
+			this._ranked.add(c);
+		}
+	}//end requestAdded
+
+	//false when the counts are not loaded or a scan may already include the request
+	private boolean current(long generation) {
+		if (this._loaded && generation != this._generation) {
+			invalidate();
+		}
+		return this._loaded;
+	}
+}
@@ -0,0 +1,405 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class holds the shop operations themselves, separated from the
+ * console prompts in MechanicShop so the same code can be driven by the
+ * interactive menu, by a script (ScriptRunner) or by any other front end.
+ *
+ * Every write operation takes an optional WriteBatch.  When one is given the
+ * statements are only queued on it and reach the database when the batch is
+ * flushed; when it is null they are executed right away.  Callers allocate
+ * new keys with MechanicShop.ID() and pass them in, so the key is known
+ * before anything is written.
+ *
+ */
+
+public final class ShopOperations {
+	static final String INSERT_CUSTOMER = "INSERT INTO Customer(id, fname, lname, phone, address) VALUES (?, ?, ?, ?, ?)";
+	static final String INSERT_MECHANIC = "INSERT INTO Mechanic(id, fname, lname, experience) VALUES (?, ?, ?, ?)";
+	static final String INSERT_CAR = "INSERT INTO Car(vin, make, model, year) VALUES (?, ?, ?, ?)";
+	static final String INSERT_OWNS = "INSERT INTO Owns(ownership_id, customer_id, car_vin) VALUES (?, ?, ?)";
+	//both rows of a new car in one statement
+	static final String INSERT_CAR_AND_OWNS =
+		"WITH c AS (INSERT INTO Car(vin, make, model, year) VALUES (?, ?, ?, ?)) " +
+		"INSERT INTO Owns(ownership_id, customer_id, car_vin) VALUES (?, ?, ?)";
+	static final String INSERT_SERVICE_REQUEST = "INSERT INTO Service_Request(rid, customer_id, car_vin, date, odometer, complain) VALUES (?, ?, ?, CURRENT_DATE, ?, ?)";
+	static final String INSERT_CLOSED_REQUEST = "INSERT INTO Closed_Request(wid, rid, mid, date, comment, bill) VALUES (?, ?, ?, ?, ?, ?)";
+	//keeps Customer_Bill_Total in step with every write to Closed_Request, whichever tool makes it
+	static final String BILL_TOTAL_FUNCTION =
+		"CREATE OR REPLACE FUNCTION closed_request_bill_total() RETURNS trigger AS $$ BEGIN " +
+		"IF TG_OP <> 'INSERT' THEN " +
+		"UPDATE Customer_Bill_Total SET total = total - OLD.bill WHERE customer_id = (SELECT customer_id FROM Service_Request WHERE rid = OLD.rid); " +
+		"END IF; " +
+		"IF TG_OP <> 'DELETE' THEN " +
+		"INSERT INTO Customer_Bill_Total(customer_id, total) SELECT customer_id, NEW.bill FROM Service_Request WHERE rid = NEW.rid " +
+		"ON CONFLICT (customer_id) DO UPDATE SET total = Customer_Bill_Total.total + EXCLUDED.total; " +
+		"END IF; " +
+		"RETURN NULL; END $$ LANGUAGE plpgsql";
+	static final String BILL_TOTAL_TRIGGER =
+		"CREATE TRIGGER closed_request_bill_total AFTER INSERT OR UPDATE OR DELETE ON Closed_Request " +
+		"FOR EACH ROW EXECUTE PROCEDURE closed_request_bill_total()";
+
+	//the report menu options, 6 to 10
+	static final int FIRST_REPORT = 6;
+	static final int LAST_REPORT = 10;
+
+	private static final String[] REPORT_QUERIES = {
+		//6. ListCustomersWithBillLessThan100
+		"SELECT date,bill,comment FROM Closed_Request WHERE bill < 100",
+		//7. ListCustomersWithMoreThan20Cars
+		"SELECT fname, lname, O.car_num FROM Customer,( SELECT customer_id,COUNT(customer_id) as car_num FROM Owns GROUP BY customer_id HAVING COUNT(customer_id) > 20) AS O WHERE O.customer_id = id",
+		//8. ListCarsBefore1995With50000Milles
+		"SELECT DISTINCT make,model, year FROM Car AS C, Service_Request AS S WHERE year < 1995 and S.car_vin = C.vin and S.odometer < 50000",
+		//9. ListKCarsWithTheMostServices, takes k
+		"SELECT make, model, R.creq FROM Car AS C, ( SELECT car_vin, COUNT(rid) AS creq FROM Service_Request GROUP BY car_vin ) AS R WHERE R.car_vin = C.vin ORDER BY R.creq DESC LIMIT ?",
+		//10. ListCustomersInDescendingOrderOfTheirTotalBill, read from the maintained totals
+		"SELECT C.fname , C.lname, T.total AS Total FROM Customer_Bill_Total AS T, Customer AS C WHERE C.id = T.customer_id ORDER BY T.total DESC"
+	};
+
+	//the tables each report reads, for invalidating its cached results
+	private static final String[][] REPORT_TABLES = {
+		{"closed_request"},
+		{"customer", "owns"},
+		{"car", "service_request"},
+		{"car", "service_request"},
+		{"customer", "customer_bill_total"}
+	};
+
+	private ShopOperations() {
+	}
+
+	/**
+	 * Method to add a customer.  Once it is committed it can be found in the
+	 * customer name index.
+	 */
+	public static void addCustomer(final MechanicShop esql, WriteBatch batch, final int id, final String fname, final String lname, final String phone, final String address) throws SQLException {
+		write(esql, batch, INSERT_CUSTOMER, id, fname, lname, phone, address);
+		after(batch, new Runnable() {
+			public void run() {
+				esql.getCustomerNames().customerAdded(id, fname, lname, phone);
+				esql.entityAdded("Customer", id, fname, lname, phone, address);
+			}
+		});
+	}//end addCustomer
+
+	public static void addMechanic(final MechanicShop esql, WriteBatch batch, final int id, final String fname, final String lname, final int experience) throws SQLException {
+		esql.getExistence().added("Mechanic", id);
+		write(esql, batch, INSERT_MECHANIC, id, fname, lname, experience);
+		after(batch, new Runnable() {
+			public void run() {
+				esql.entityAdded("Mechanic", id, fname, lname, experience);
+			}
+		});
+	}
+
+	/**
+	 * Method to add a car together with the Owns row tying it to a customer.
+	 * Without a batch both rows are written by a single statement.
+	 */
+	public static void addCar(final MechanicShop esql, WriteBatch batch, final int customerID, final String vin, final String make, final String model, final int year) throws SQLException {
+		if (batch == null) {
+			esql.registerCar(vin, make, model, year, customerID);
+		} else {
+			// allocated first, so a failure leaves nothing queued
+			int ownershipID = Integer.parseInt(esql.ID("Owns"));
+			esql.getExistence().added("Car", vin);
+			batch.add(INSERT_CAR, vin, make, model, year);
+			batch.add(INSERT_OWNS, ownershipID, customerID, vin);
+		}
+		after(batch, new Runnable() {
+			public void run() {
+				esql.entityAdded("Car", vin, make, model, year);
+				esql.ownedCarsChanged(customerID);
+			}
+		});
+	}//end addCar
+
+	/**
+	 * Method to open a service request.  Once it is committed it is counted
+	 * in the service count index behind report 9.
+	 */
+	public static void insertServiceRequest(final MechanicShop esql, WriteBatch batch, int rid, int customerID, final String vin, int odometer, String complain) throws SQLException {
+		// taken before the insert can be committed, see ServiceCountIndex
+		final long generation = esql.getServiceCounts().generation();
+		esql.getExistence().added("Service_Request", rid);
+		write(esql, batch, INSERT_SERVICE_REQUEST, rid, customerID, vin, odometer, complain);
+		after(batch, new Runnable() {
+			public void run() {
+				try {
+					esql.getServiceCounts().requestAdded(vin, generation);
+				} catch (SQLException e) {
+					// the index dropped its counts and reads them again when next used
+				}
+			}
+		});
+	}//end insertServiceRequest
+
+	/**
+	 * Method to close a service request.  The closed_request_bill_total
+	 * trigger adds the bill to the customer's row in Customer_Bill_Total in
+	 * the same transaction.
+	 */
+	public static void closeServiceRequest(final MechanicShop esql, WriteBatch batch, int wid, int rid, int mid, LocalDate date, String comment, int bill) throws SQLException {
+		write(esql, batch, INSERT_CLOSED_REQUEST, wid, rid, mid, java.sql.Date.valueOf(date), comment, bill);
+		// the trigger's write is not named by the statement
+		after(batch, new Runnable() {
+			public void run() {
+				esql.getReportCache().invalidate("Customer_Bill_Total");
+			}
+		});
+	}//end closeServiceRequest
+
+	/**
+	 * Method to create Customer_Bill_Total, the per customer bill totals read
+	 * by report 10, and the trigger on Closed_Request maintaining it when
+	 * either does not exist yet, and fill the table from the closed requests.
+	 *
+	 * @return true when the table or the trigger was created (and the table
+	 *         filled) by this call
+	 * @throws java.sql.SQLException when failed to create or fill the table
+	 */
+	public static boolean ensureBillTotals(MechanicShop esql) throws SQLException {
+		boolean table = esql.executeQuery("SELECT 1 FROM pg_class WHERE oid = to_regclass('customer_bill_total')") == 0;
+		boolean trigger = esql.executeQuery("SELECT 1 FROM pg_trigger WHERE tgname = 'closed_request_bill_total' " +
+			"AND tgrelid = to_regclass('closed_request')") == 0;
+		if (!table && !trigger) {
+			return false;
+		}
+		if (table) {
+			esql.executeUpdate("CREATE TABLE IF NOT EXISTS Customer_Bill_Total (customer_id INTEGER NOT NULL, total BIGINT NOT NULL, " +
+				"PRIMARY KEY (customer_id), FOREIGN KEY (customer_id) REFERENCES Customer(id))");
+			esql.executeUpdate("CREATE INDEX IF NOT EXISTS customer_bill_total_total ON Customer_Bill_Total(total DESC)");
+		}
+		if (trigger) {
+			WriteBatch batch = esql.newBatch();
+			batch.add(BILL_TOTAL_FUNCTION);
+			batch.add("DROP TRIGGER IF EXISTS closed_request_bill_total ON Closed_Request");
+			batch.add(BILL_TOTAL_TRIGGER);
+			batch.flush();
+		}
+		// requests closed before the trigger existed may be missing from the totals
+		refreshBillTotals(esql);
+		return true;
+	}//end ensureBillTotals
+
+	/**
+	 * Method to recompute every row of Customer_Bill_Total from the closed
+	 * requests, e.g. after they were bulk loaded with the trigger disabled.
+	 * Closed_Request is locked against writes while the totals are summed,
+	 * so no bill added by the trigger meanwhile is lost or counted twice.
+	 *
+	 * @throws java.sql.SQLException when failed to refill the table
+	 */
+	public static void refreshBillTotals(MechanicShop esql) throws SQLException {
+		WriteBatch batch = esql.newBatch();
+		batch.add("LOCK TABLE Closed_Request IN SHARE MODE");
+		batch.add("DELETE FROM Customer_Bill_Total");
+		batch.add("INSERT INTO Customer_Bill_Total(customer_id, total) SELECT SR.customer_id, SUM(CR.bill) " +
+			"FROM Closed_Request AS CR, Service_Request AS SR WHERE CR.rid = SR.rid GROUP BY SR.customer_id");
+		batch.flush();
+	}
+
+	/**
+	 * Method to check that a service request can be closed by a mechanic on
+	 * the given date.  The request is read on the async executor while the
+	 * mechanic is checked, so the two round trips overlap.
+	 *
+	 * @return null when it can, otherwise the reason it cannot
+	 * @throws java.sql.SQLException when failed to execute a query
+	 */
+	public static String checkClosable(MechanicShop esql, int rid, int mid, LocalDate date) throws SQLException {
+		CompletableFuture<ResultTable> pending = esql.executeQueryAndReturnTableAsync("SELECT date FROM Service_Request WHERE rid = ?", rid);
+		boolean mechanic = esql.getEntity("Mechanic", mid) != null;
+		ResultTable request = MechanicShop.await(pending);
+		if (!mechanic) {
+			return "Employee ID Number " + mid + " not found";
+		}
+		if (request.size() == 0) {
+			return "Service Request Number " + rid + " not found";
+		}
+		if (request.getEpochDay(0, "date") > date.toEpochDay()) {
+			return "Closing date (" + date + ") is before date of service (" + request.getDate(0, "date") + ")";
+		}
+		return null;
+	}//end checkClosable
+
+	/**
+	 * @param report the menu option of the report, 6 to 10
+	 * @return the SQL of the report; report 9 takes k as its only parameter
+	 */
+	public static String reportQuery(int report) {
+		if (report < FIRST_REPORT || report > LAST_REPORT) {
+			throw new IllegalArgumentException("Unknown report " + report);
+		}
+		return REPORT_QUERIES[report - FIRST_REPORT];
+	}
+
+	private static Object[] reportParams(int report, int k) {
+		if (report == 9) {
+			if (k <= 0) {
+				throw new IllegalArgumentException("k must be larger than 0");
+			}
+			return new Object[] { k };
+		}
+		return new Object[0];
+	}
+
+	/**
+	 * Method to run one of the reports and print it to standard out.  A
+	 * cached result is printed from memory; otherwise the rows are streamed
+	 * to the screen as they arrive, with the print limit applied to the
+	 * query, and a copy is kept for the cache only while the result stays
+	 * within the row bound of the cache and is not cut by the limit.
+	 *
+	 * @param report the menu option of the report, 6 to 10
+	 * @param k the limit for report 9, ignored by the others
+	 * @return the number of rows printed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static int printReport(MechanicShop esql, int report, int k) throws SQLException {
+		Object[] params = reportParams(report, k);
+		if (report == 9) {
+			return esql.printTable(esql.getServiceCounts().top(k));
+		}
+		ReportCache cache = esql.getReportCache();
+		String key = ReportCache.key(report, params);
+		ResultTable result = cache.get(key);
+		if (result != null) {
+			return esql.printTable(result);
+		}
+		if (!cache.isEnabled()) {
+			return esql.executeQueryAndPrintResult(reportQuery(report), params);
+		}
+
+		long generation = cache.generation();
+		BoundedCopy copy = new BoundedCopy(cache.getMaxRows());
+		int printed = esql.executeQueryAndPrintResult(reportQuery(report), copy, params);
+		int limit = esql.getPrintLimit();
+		if (copy.table != null && (limit == 0 || copy.rows <= limit)) {
+			cache.put(key, generation, copy.table, REPORT_TABLES[report - FIRST_REPORT]);
+		}
+		return printed;
+	}//end printReport
+
+	/**
+	 * RowHandler that keeps a copy of the rows it sees until there are more
+	 * than a given number, then drops the copy and only counts.
+	 */
+	private static final class BoundedCopy implements RowHandler {
+		private final int _maxRows;
+		//null before the first row and once the bound was passed
+		ResultTable table;
+		int rows = 0;
+
+		BoundedCopy(int maxRows) {
+			this._maxRows = maxRows;
+		}
+
+		public void handleRow(ResultSet rs) throws SQLException {
+			++this.rows;
+			if (this.rows > this._maxRows) {
+				this.table = null;
+				return;
+			}
+			if (this.table == null) {
+				this.table = ResultTable.empty(rs.getMetaData());
+			}
+			this.table.appendRow(rs);
+		}
+	}//end BoundedCopy
+
+	/**
+	 * Method to run one of the reports and return its rows, from the report
+	 * cache when nothing it reads has been written to since it was cached.
+	 * Report 9 is always answered by the service count index.  All rows are
+	 * read into memory, so printing should go through printReport().
+	 *
+	 * @param report the menu option of the report, 6 to 10
+	 * @param k the limit for report 9, ignored by the others
+	 * @return the report rows
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static ResultTable runReport(MechanicShop esql, int report, int k) throws SQLException {
+		Object[] params = reportParams(report, k);
+		if (report == 9) {
+			// answered from the live counts, no query needed
+			return esql.getServiceCounts().top(k);
+		}
+		ReportCache cache = esql.getReportCache();
+		String key = ReportCache.key(report, params);
+		ResultTable result = cache.get(key);
+		if (result == null) {
+			long generation = cache.generation();
+			result = esql.executeQueryAndReturnTable(reportQuery(report), params);
+			cache.put(key, generation, result, REPORT_TABLES[report - FIRST_REPORT]);
+		}
+		return result;
+	}
+
+	/**
+	 * Method to stream one of the reports as CSV with a header line.  The
+	 * server produces the CSV through COPY, so no rows are decoded here and
+	 * memory use does not depend on the size of the report.
+	 *
+	 * @param report the menu option of the report, 6 to 10
+	 * @param k the limit for report 9, ignored by the others
+	 * @param out where the CSV is written
+	 * @return the number of rows written
+	 * @throws java.sql.SQLException when failed to execute the query
+	 * @throws java.io.IOException when failed to write the output
+	 */
+	public static long exportReport(MechanicShop esql, int report, int k, OutputStream out) throws SQLException, IOException {
+		return esql.executeCopyOut(copyQuery(report, k), "CSV HEADER", out);
+	}
+
+	/**
+	 * Method to write one of the reports to a CSV file, replacing it.
+	 *
+	 * @return the number of rows written
+	 */
+	public static long exportReport(MechanicShop esql, int report, int k, File file) throws SQLException, IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		try {
+			return exportReport(esql, report, k, out);
+		} finally {
+			out.close();
+		}
+	}//end exportReport
+
+	/**
+	 * COPY cannot bind parameters, so the (integer, already checked)
+	 * parameters of the report are written into the query itself.
+	 */
+	private static String copyQuery(int report, int k) {
+		String sql = reportQuery(report);
+		for (Object param : reportParams(report, k)) {
+			sql = sql.replaceFirst("\\?", Integer.toString((Integer) param));
+		}
+		return sql;
+	}
+
+	//runs an update of the in-memory state once the write is committed
+	private static void after(WriteBatch batch, Runnable action) {
+		if (batch == null) {
+			action.run();
+		} else {
+			batch.afterCommit(action);
+		}
+	}
+
+	private static void write(MechanicShop esql, WriteBatch batch, String sql, Object... params) throws SQLException {
+		if (batch == null) {
+			esql.executeUpdate(sql, params);
+		} else {
+			batch.add(sql, params);
+		}
+	}
+}
@@ -0,0 +1,398 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * This class serves the shop operations over HTTP with JSON bodies, using the
+ * JDK's built-in HttpServer.  Every request runs on its own virtual thread
+ * (see VirtualThreads) and borrows a pooled connection only while it talks to
+ * the database, so many counters and kiosks can share one JVM.
+ *
+ *   POST /customers         {"fname", "lname", "phone", "address"}      -> {"id"}
+ *   POST /mechanics         {"fname", "lname", "experience"}            -> {"id"}
+ *   POST /cars              {"customer_id", "vin", "make", "model", "year"}
+ *   POST /service-requests  {"customer_id", "vin", "odometer", "complain"} -> {"rid"}
+ *   POST /closed-requests   {"rid", "mid", "bill", "comment"}           -> {"wid"}
+ *   GET  /reports/6 .. /reports/10[?k=N]                                -> {"columns", "rows"}
+ *
+ * Invalid input is answered with 400 and {"error": "..."}.
+ *
+ */
+
+public class ShopServer {
+	private final MechanicShop _esql;
+	private final HttpServer _server;
+	private final ExecutorService _executor;
+	private final CountDownLatch _stopped = new CountDownLatch(1);
+
+	public ShopServer(MechanicShop esql, int port) throws IOException {
+		this._esql = esql;
+		this._server = HttpServer.create(new InetSocketAddress(port), 0);
+		this._executor = VirtualThreads.newPerTaskExecutor("shop-http");
+		this._server.setExecutor(this._executor);
+		this._server.createContext("/customers", new Endpoint("POST") {
+			String handle(String[] path, Map<String, String> in) throws SQLException {
+				Validator.require(Validator.NAME, field(in, "fname"));
+				Validator.require(Validator.NAME, field(in, "lname"));
+				Validator.require(Validator.PHONE, field(in, "phone"));
+				String[] address = Validator.addressParts(field(in, "address").trim());
+				if (address == null) {
+					throw new IllegalArgumentException("address must be of the form street, city ST 12345");
+				}
+				Validator.require(Validator.STREET, address[0]);
+				Validator.require(Validator.CITY, address[1]);
+				Validator.require(Validator.STATE, address[2]);
+				Validator.require(Validator.ZIP, address[3]);
+				int id = Integer.parseInt(_esql.ID("Customer"));
+				ShopOperations.addCustomer(_esql, null, id, in.get("fname").trim(), in.get("lname").trim(), in.get("phone"), in.get("address").trim());
+				return "{\"id\":" + id + "}";
+			}
+		});
+		this._server.createContext("/mechanics", new Endpoint("POST") {
+			String handle(String[] path, Map<String, String> in) throws SQLException {
+				Validator.require(Validator.NAME, field(in, "fname"));
+				Validator.require(Validator.NAME, field(in, "lname"));
+				Validator.require(Validator.YEARS, field(in, "experience"));
+				int id = Integer.parseInt(_esql.ID("Mechanic"));
+				ShopOperations.addMechanic(_esql, null, id, in.get("fname").trim(), in.get("lname").trim(), Integer.parseInt(in.get("experience")));
+				return "{\"id\":" + id + "}";
+			}
+		});
+		this._server.createContext("/cars", new Endpoint("POST") {
+			String handle(String[] path, Map<String, String> in) throws SQLException {
+				String vin = field(in, "vin").trim().toUpperCase();
+				Validator.require(Validator.VIN, vin);
+				Validator.require(Validator.MAKE, field(in, "make"));
+				Validator.require(Validator.MODEL, field(in, "model"));
+				Validator.require(Validator.YEAR, field(in, "year"));
+				Validator.require(Validator.CAR_YEAR, field(in, "year"));
+				int customerID = number(in, "customer_id");
+				requireEntity("Customer", customerID, "Customer ID " + customerID + " not found");
+				if (_esql.getEntity("Car", vin) != null) {
+					throw new IllegalArgumentException("Car " + vin + " already exists");
+				}
+				ShopOperations.addCar(_esql, null, customerID, vin, in.get("make").trim(), in.get("model").trim(), number(in, "year"));
+				return "{\"vin\":" + quote(vin) + "}";
+			}
+		});
+		this._server.createContext("/service-requests", new Endpoint("POST") {
+			String handle(String[] path, Map<String, String> in) throws SQLException {
+				int odometer = number(in, "odometer");
+				if (odometer <= 0) {
+					throw new IllegalArgumentException("odometer must be positive");
+				}
+				int customerID = number(in, "customer_id");
+				String vin = field(in, "vin").trim().toUpperCase();
+				requireEntity("Customer", customerID, "Customer ID " + customerID + " not found");
+				requireEntity("Car", vin, "Car " + vin + " not found");
+				int rid = Integer.parseInt(_esql.ID("Service_Request"));
+				ShopOperations.insertServiceRequest(_esql, null, rid, customerID, vin, odometer, in.get("complain"));
+				return "{\"rid\":" + rid + "}";
+			}
+		});
+		this._server.createContext("/closed-requests", new Endpoint("POST") {
+			String handle(String[] path, Map<String, String> in) throws SQLException {
+				int rid = number(in, "rid");
+				int mid = number(in, "mid");
+				Validator.require(Validator.BILL, field(in, "bill"));
+				LocalDate today = LocalDate.now();
+				String error = ShopOperations.checkClosable(_esql, rid, mid, today);
+				if (error != null) {
+					throw new IllegalArgumentException(error);
+				}
+				int wid = Integer.parseInt(_esql.ID("Closed_Request"));
+				ShopOperations.closeServiceRequest(_esql, null, wid, rid, mid, today, in.get("comment"), number(in, "bill"));
+				return "{\"wid\":" + wid + "}";
+			}
+		});
+		this._server.createContext("/reports", new Endpoint("GET") {
+			String handle(String[] path, Map<String, String> in) throws SQLException {
+				if (path.length != 3) {
+					throw new IllegalArgumentException("expected /reports/<6-10>");
+				}
+				int report = Integer.parseInt(path[2]);
+				int k = in.containsKey("k") ? number(in, "k") : 0;
+				return toJson(ShopOperations.runReport(_esql, report, k));
+			}
+		});
+	}
+
+	/**
+	 * Method to start serving and block until the JVM shuts down.
+	 */
+	public void serve() throws InterruptedException {
+		this._server.start();
+		System.out.println("Serving on port " + this._server.getAddress().getPort() + (VirtualThreads.available() ? " (virtual threads)" : ""));
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				ShopServer.this.stop();
+			}
+		});
+		this._stopped.await();
+	}
+
+	/**
+	 * Method to stop accepting requests, giving running ones a second to finish.
+	 */
+	public void stop() {
+		if (this._stopped.getCount() > 0) {
+			this._server.stop(1);
+			this._executor.shutdown();
+			this._stopped.countDown();
+		}
+	}
+
+	/**
+	 * Base for the endpoints: checks the method, decodes the query string and
+	 * JSON body into one map and turns exceptions into JSON error responses.
+	 */
+	private abstract static class Endpoint implements HttpHandler {
+		private final String _method;
+
+		Endpoint(String method) {
+			this._method = method;
+		}
+
+		abstract String handle(String[] path, Map<String, String> in) throws SQLException;
+
+		public void handle(HttpExchange exchange) throws IOException {
+			int status = 200;
+			String body;
+			try {
+				if (!exchange.getRequestMethod().equalsIgnoreCase(this._method)) {
+					status = 405;
+					body = "{\"error\":\"use " + this._method + "\"}";
+				} else {
+					Map<String, String> in = new HashMap<String, String>();
+					parseQuery(exchange.getRequestURI().getRawQuery(), in);
+					if (this._method.equals("POST")) {
+						parseObject(new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8), in);
+					}
+					String[] path = exchange.getRequestURI().getPath().split("/");
+					body = handle(path, in);
+				}
+			} catch (IllegalArgumentException e) {
+				status = 400;
+				body = "{\"error\":" + quote(e.getMessage()) + "}";
+			} catch (SQLException e) {
+				// constraint violations and bad values are the client's fault
+				String state = e.getSQLState();
+				status = state != null && (state.startsWith("22") || state.startsWith("23")) ? 400 : 500;
+				body = "{\"error\":" + quote(e.getMessage()) + "}";
+			} catch (Exception e) {
+				status = 500;
+				body = "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}";
+			}
+
+			byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			exchange.sendResponseHeaders(status, bytes.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(bytes);
+			out.close();
+		}//end handle
+	}
+
+	//looks the row up through the entity cache of its table
+	private void requireEntity(String table, Object key, String error) throws SQLException {
+		if (this._esql.getEntity(table, key) == null) {
+			throw new IllegalArgumentException(error);
+		}
+	}
+
+	private static String field(Map<String, String> in, String name) {
+		String value = in.get(name);
+		if (value == null) {
+			throw new IllegalArgumentException("missing field " + name);
+		}
+		return value;
+	}
+
+	private static int number(Map<String, String> in, String name) {
+		try {
+			return Integer.parseInt(field(in, name).trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " must be a number");
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] chunk = new byte[4096];
+		int n;
+		while ((n = in.read(chunk)) > 0) {
+			buffer.write(chunk, 0, n);
+		}
+		return buffer.toByteArray();
+	}
+
+	private static void parseQuery(String query, Map<String, String> out) throws IOException {
+		if (query == null || query.isEmpty()) {
+			return;
+		}
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			String key = eq < 0 ? pair : pair.substring(0, eq);
+			String value = eq < 0 ? "" : pair.substring(eq + 1);
+			out.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+		}
+	}
+
+	/**
+	 * Method to read a flat JSON object whose values are strings, numbers,
+	 * booleans or null.  Values are kept as text; null values are skipped.
+	 */
+	static void parseObject(String json, Map<String, String> out) {
+		int[] pos = { skip(json, 0) };
+		if (pos[0] == json.length()) {
+			return;
+		}
+		expect(json, pos, '{');
+		if (peek(json, pos) == '}') {
+			return;
+		}
+		while (true) {
+			String key = readString(json, pos);
+			expect(json, pos, ':');
+			String value;
+			if (peek(json, pos) == '"') {
+				value = readString(json, pos);
+			} else {
+				int start = pos[0];
+				while (pos[0] < json.length() && ",} \t\r\n".indexOf(json.charAt(pos[0])) < 0) {
+					++pos[0];
+				}
+				value = json.substring(start, pos[0]);
+				if (value.isEmpty() || value.startsWith("{") || value.startsWith("[")) {
+					throw new IllegalArgumentException("unsupported JSON value for " + key);
+				}
+				if (value.equals("null")) {
+					value = null;
+				}
+			}
+			if (value != null) {
+				out.put(key, value);
+			}
+			char c = peek(json, pos);
+			++pos[0];
+			if (c == '}') {
+				return;
+			}
+			if (c != ',') {
+				throw new IllegalArgumentException("malformed JSON body");
+			}
+		}
+	}//end parseObject
+
+	private static int skip(String s, int i) {
+		while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+			++i;
+		}
+		return i;
+	}
+
+	private static char peek(String s, int[] pos) {
+		pos[0] = skip(s, pos[0]);
+		if (pos[0] >= s.length()) {
+			throw new IllegalArgumentException("malformed JSON body");
+		}
+		return s.charAt(pos[0]);
+	}
+
+	private static void expect(String s, int[] pos, char c) {
+		if (peek(s, pos) != c) {
+			throw new IllegalArgumentException("malformed JSON body, expected " + c);
+		}
+		++pos[0];
+	}
+
+	private static String readString(String s, int[] pos) {
+		expect(s, pos, '"');
+		StringBuilder sb = new StringBuilder();
+		while (pos[0] < s.length()) {
+			char c = s.charAt(pos[0]++);
+			if (c == '"') {
+				return sb.toString();
+			}
+			if (c == '\\' && pos[0] < s.length()) {
+				char e = s.charAt(pos[0]++);
+				switch (e) {
+					case 'n': sb.append('\n'); break;
+					case 't': sb.append('\t'); break;
+					case 'r': sb.append('\r'); break;
+					case 'b': sb.append('\b'); break;
+					case 'f': sb.append('\f'); break;
+					case 'u':
+						if (pos[0] + 4 > s.length()) {
+							throw new IllegalArgumentException("malformed JSON body");
+						}
+						sb.append((char) Integer.parseInt(s.substring(pos[0], pos[0] + 4), 16));
+						pos[0] += 4;
+						break;
+					default: sb.append(e); break;
+				}
+			} else {
+				sb.append(c);
+			}
+		}
+		throw new IllegalArgumentException("malformed JSON body, unterminated string");
+	}//end readString
+
+	static String quote(String s) {
+		if (s == null) {
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		return sb.append('"').toString();
+	}//end quote
+
+	static String toJson(ResultTable table) {
+		StringBuilder sb = new StringBuilder("{\"columns\":[");
+		for (int c = 0; c < table.columnCount(); ++c) {
+			if (c > 0) sb.append(',');
+			sb.append(quote(table.columnName(c)));
+		}
+		sb.append("],\"rows\":[");
+		for (int r = 0; r < table.size(); ++r) {
+			if (r > 0) sb.append(',');
+			sb.append('[');
+			for (int c = 0; c < table.columnCount(); ++c) {
+				if (c > 0) sb.append(',');
+				String value = table.getString(r, c);
+				sb.append(value == null ? "null" : quote(value.trim()));
+			}
+			sb.append(']');
+		}
+		return sb.append("]}").toString();
+	}//end toJson
+}
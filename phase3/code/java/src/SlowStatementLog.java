@@ -0,0 +1,381 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class logs the statements of the MechanicShop helpers that take
+ * longer than a threshold, with their shape (the SQL with every literal
+ * replaced by ?), bind values, duration and row count.  Optionally each
+ * logged SELECT is run again under EXPLAIN (ANALYZE, BUFFERS) on a separate
+ * connection, and the plan is logged with it.
+ *
+ * Statements under the threshold cost one comparison.  Slow ones are
+ * sampled and rate limited, and the entries are formatted, explained and
+ * written by a background thread to a file that is rolled over when it gets
+ * too big, so a slow database does not also slow down the log.
+ *
+ * Settings, as system properties:
+ *   mechanicshop.slowlog.thresholdMs   statements slower than this are logged, negative turns the log off (500)
+ *   mechanicshop.slowlog.sample        the share of slow statements logged (1.0)
+ *   mechanicshop.slowlog.maxPerMinute  the most entries written per minute (30)
+ *   mechanicshop.slowlog.explain       whether SELECTs are explained (false)
+ *   mechanicshop.slowlog.file          the log file (slow-statements.log)
+ *   mechanicshop.slowlog.maxBytes      the size at which the file is rolled over (1048576)
+ *   mechanicshop.slowlog.files         the number of rolled over files kept (5)
+ *
+ */
+
+public class SlowStatementLog {
+	//a bound array, copied so it can be bound again on the side connection
+	private static final class ArrayValue {
+		final String type;
+		final Object[] values;
+
+		ArrayValue(String type, Object[] values) {
+			this.type = type;
+			this.values = values;
+		}
+
+		public String toString() {
+			return Arrays.toString(this.values);
+		}
+	}
+
+	private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+	private static final int MAX_BIND_LENGTH = 100;
+
+	private final ConnectionPool _pool;
+	private final long _thresholdNanos;
+	private final double _sample;
+	private final int _maxPerMinute;
+	private final boolean _explain;
+	private final File _file;
+	private final long _maxBytes;
+	private final int _files;
+
+	//entries written in the current minute, and when it started
+	private final AtomicLong _windowStart = new AtomicLong(System.nanoTime());
+	private final AtomicLong _windowCount = new AtomicLong();
+	//slow statements left out by sampling, rate limiting or a full queue since the last entry
+	private final AtomicLong _suppressed = new AtomicLong();
+	private ThreadPoolExecutor _writer = null;
+
+	//only used by the writer thread
+	private Writer _out = null;
+	private long _size = 0;
+	private Connection _side = null;
+
+	SlowStatementLog(ConnectionPool pool) {
+		this._pool = pool;
+		long thresholdMs = Long.getLong("mechanicshop.slowlog.thresholdMs", 500L);
+		this._thresholdNanos = thresholdMs < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+		this._sample = Double.parseDouble(System.getProperty("mechanicshop.slowlog.sample", "1.0"));
+		this._maxPerMinute = Integer.getInteger("mechanicshop.slowlog.maxPerMinute", 30);
+		this._explain = Boolean.parseBoolean(System.getProperty("mechanicshop.slowlog.explain", "false"));
+		this._file = new File(System.getProperty("mechanicshop.slowlog.file", "slow-statements.log"));
+		this._maxBytes = Long.getLong("mechanicshop.slowlog.maxBytes", 1L << 20);
+		this._files = Integer.getInteger("mechanicshop.slowlog.files", 5);
+	}
+
+	/**
+	 * Method to report a finished statement.  Returns at once unless the
+	 * statement was slow.
+	 *
+	 * @param sql the statement as run, with a ? placeholder for each parameter
+	 * @param params the values bound to the placeholders
+	 * @param nanos how long the statement took
+	 * @param rows the number of rows it returned or changed
+	 */
+	public void record(String sql, Object[] params, long nanos, long rows) {
+		if (nanos < this._thresholdNanos) {
+			return;
+		}
+		if ((this._sample < 1.0 && ThreadLocalRandom.current().nextDouble() >= this._sample) || !admit()) {
+			this._suppressed.incrementAndGet();
+			return;
+		}
+
+		// arrays may be freed once the caller returns, copy their values now
+		final Object[] binds = new Object[params.length];
+		for (int i = 0; i < params.length; ++i) {
+			binds[i] = params[i];
+			if (params[i] instanceof Array) {
+				try {
+					Array array = (Array) params[i];
+					binds[i] = new ArrayValue(array.getBaseTypeName(), (Object[]) array.getArray());
+				} catch (Exception e) {
+					binds[i] = "(array)";
+				}
+			}
+		}
+		final String statement = sql;
+		final long elapsed = nanos;
+		final long rowCount = rows;
+		final String thread = Thread.currentThread().getName();
+		final LocalDateTime at = LocalDateTime.now();
+		try {
+			writer().execute(new Runnable() {
+				public void run() {
+					write(at, thread, statement, binds, elapsed, rowCount);
+				}
+			});
+		} catch (RuntimeException e) {
+			// the queue is full or the log is closed
+			this._suppressed.incrementAndGet();
+		}
+	}//end record
+
+	//true when one more entry fits in the current minute
+	private boolean admit() {
+		long now = System.nanoTime();
+		long windowStart = this._windowStart.get();
+		if (now - windowStart >= MINUTE && this._windowStart.compareAndSet(windowStart, now)) {
+			this._windowCount.set(0);
+		}
+		return this._windowCount.incrementAndGet() <= this._maxPerMinute;
+	}
+
+	private synchronized ThreadPoolExecutor writer() {
+		if (this._writer == null) {
+			// a short queue, entries beyond it are counted as suppressed
+			this._writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(64), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "slow-statement-log");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return this._writer;
+	}
+
+	private void write(LocalDateTime at, String thread, String sql, Object[] binds, long nanos, long rows) {
+		StringBuilder entry = new StringBuilder();
+		entry.append(at).append(String.format(" slow statement: %.3f ms, %d rows, thread %s%n", nanos / 1e6, rows, thread));
+		entry.append("  shape: ").append(shape(sql)).append(System.lineSeparator());
+		if (binds.length > 0) {
+			entry.append("  binds: ").append(binds(binds)).append(System.lineSeparator());
+		}
+		long suppressed = this._suppressed.getAndSet(0);
+		if (suppressed > 0) {
+			entry.append("  (").append(suppressed).append(" slow statements not logged since the last entry)").append(System.lineSeparator());
+		}
+		if (this._explain && sql.trim().toUpperCase(Locale.ROOT).startsWith("SELECT")) {
+			try {
+				entry.append("  plan:").append(System.lineSeparator());
+				for (String line : explain(sql, binds)) {
+					entry.append("    ").append(line).append(System.lineSeparator());
+				}
+			} catch (SQLException e) {
+				entry.append("    could not explain: ").append(e.getMessage()).append(System.lineSeparator());
+				closeSide();
+			}
+		}
+		entry.append(System.lineSeparator());
+
+		try {
+			append(entry.toString());
+		} catch (IOException e) {
+			System.err.println("Could not write the slow statement log " + this._file + ": " + e.getMessage());
+		}
+	}//end write
+
+	/**
+	 * Method to run a statement again under EXPLAIN (ANALYZE, BUFFERS) on the
+	 * side connection.  It runs inside a transaction that is rolled back.
+	 *
+	 * @return the lines of the text plan
+	 */
+	private String[] explain(String sql, Object[] binds) throws SQLException {
+		if (this._side == null) {
+			this._side = this._pool.openConnection();
+			this._side.setAutoCommit(false);
+		}
+		PreparedStatement stmt = this._side.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql);
+		try {
+			stmt.setQueryTimeout(60);
+			for (int i = 0; i < binds.length; ++i) {
+				if (binds[i] instanceof ArrayValue) {
+					ArrayValue array = (ArrayValue) binds[i];
+					stmt.setArray(i + 1, this._side.createArrayOf(array.type, array.values));
+				} else {
+					stmt.setObject(i + 1, binds[i]);
+				}
+			}
+			StringBuilder plan = new StringBuilder();
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				plan.append(rs.getString(1)).append('\n');
+			}
+			rs.close();
+			return plan.toString().split("\n");
+		} finally {
+			stmt.close();
+			this._side.rollback();
+		}
+	}//end explain
+
+	private void closeSide() {
+		if (this._side != null) {
+			try {
+				this._side.close();
+			} catch (SQLException e) {
+				// reopened on the next plan
+			}
+			this._side = null;
+		}
+	}
+
+	//appends to the log file, rolling it over to file.1, file.2, ... when full
+	private void append(String entry) throws IOException {
+		if (this._out != null && this._size >= this._maxBytes) {
+			this._out.close();
+			this._out = null;
+			for (int i = this._files - 1; i >= 1; --i) {
+				File from = new File(this._file.getPath() + "." + i);
+				if (from.exists()) {
+					File to = new File(this._file.getPath() + "." + (i + 1));
+					to.delete();
+					from.renameTo(to);
+				}
+			}
+			File first = new File(this._file.getPath() + ".1");
+			first.delete();
+			if (this._files > 0) {
+				this._file.renameTo(first);
+			} else {
+				this._file.delete();
+			}
+		}
+		if (this._out == null) {
+			this._size = this._file.length();
+			this._out = new OutputStreamWriter(new FileOutputStream(this._file, true), StandardCharsets.UTF_8);
+		}
+		this._out.write(entry);
+		this._out.flush();
+		this._size += entry.getBytes(StandardCharsets.UTF_8).length;
+	}//end append
+
+	/**
+	 * Method to write the entries still queued and close the file and the
+	 * side connection.
+	 */
+	public void close() {
+		ThreadPoolExecutor writer;
+		synchronized (this) {
+			writer = this._writer;
+		}
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.execute(new Runnable() {
+				public void run() {
+					closeSide();
+					try {
+						if (SlowStatementLog.this._out != null) {
+							SlowStatementLog.this._out.close();
+							SlowStatementLog.this._out = null;
+						}
+					} catch (IOException e) {
+						// nothing left to write to
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// already closed
+		}
+		writer.shutdown();
+		try {
+			writer.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}//end close
+
+	private static String binds(Object[] binds) {
+		StringBuilder b = new StringBuilder("[");
+		for (int i = 0; i < binds.length; ++i) {
+			if (i > 0) {
+				b.append(", ");
+			}
+			Object value = binds[i];
+			String text = String.valueOf(value);
+			if (text.length() > MAX_BIND_LENGTH) {
+				text = text.substring(0, MAX_BIND_LENGTH) + "...";
+			}
+			b.append(value instanceof String ? "'" + text + "'" : text);
+		}
+		return b.append(']').toString();
+	}
+
+	/**
+	 * Method to reduce a statement to its shape: runs of blanks become one
+	 * space and every string or number literal becomes ?, so statements that
+	 * differ only in inlined values look the same in the log.
+	 *
+	 * @param sql the statement
+	 * @return its shape
+	 */
+	static String shape(String sql) {
+		StringBuilder b = new StringBuilder(sql.length());
+		int i = 0;
+		int n = sql.length();
+		while (i < n) {
+			char c = sql.charAt(i);
+			if (c == '\'') {
+				// a string literal, '' is an escaped quote
+				++i;
+				while (i < n) {
+					if (sql.charAt(i) == '\'') {
+						if (i + 1 < n && sql.charAt(i + 1) == '\'') {
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					++i;
+				}
+				++i;
+				b.append('?');
+			} else if (Character.isDigit(c) && (b.length() == 0 || !isWordChar(b.charAt(b.length() - 1)))) {
+				while (i < n && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					++i;
+				}
+				b.append('?');
+			} else if (Character.isWhitespace(c)) {
+				while (i < n && Character.isWhitespace(sql.charAt(i))) {
+					++i;
+				}
+				if (b.length() > 0 && i < n) {
+					b.append(' ');
+				}
+			} else {
+				b.append(c);
+				++i;
+			}
+		}
+		return b.toString();
+	}//end shape
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+}
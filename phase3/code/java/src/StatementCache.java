@@ -0,0 +1,81 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the prepared statements of one physical connection, keyed
+ * by their SQL text.  Because the same PreparedStatement object is reused for
+ * every execution of a given statement shape, the PostgreSQL driver switches
+ * it to a named server-side statement once it has run prepareThreshold times
+ * and the server stops re-parsing and re-planning it.
+ *
+ * The cache is bounded; the least recently used statement is closed once the
+ * limit (mechanicshop.statementCache.size, 64 by default) is exceeded.
+ *
+ */
+
+public class StatementCache {
+	private final Connection _connection;
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+
+	public StatementCache(Connection connection) {
+		this._connection = connection;
+		final int maxSize = Integer.getInteger("mechanicshop.statementCache.size", 64);
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() > maxSize) {
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Method to obtain the prepared statement for the given SQL, preparing it
+	 * on first use.  The returned statement stays owned by the cache and must
+	 * not be closed by the caller.
+	 *
+	 * @param sql the parameterized SQL string
+	 * @return the cached prepared statement
+	 * @throws java.sql.SQLException when the statement could not be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement ps = this._statements.get(sql);
+		if (ps == null || ps.isClosed()) {
+			ps = this._connection.prepareStatement(sql);
+			this._statements.put(sql, ps);
+		}
+		return ps;
+	}//end prepare
+
+	/**
+	 * @return the number of statements currently cached
+	 */
+	public int size() {
+		return this._statements.size();
+	}
+
+	/**
+	 * Method to close every cached statement.
+	 */
+	public void clear() {
+		Iterator<PreparedStatement> it = this._statements.values().iterator();
+		while (it.hasNext()) {
+			closeQuietly(it.next());
+			it.remove();
+		}
+	}//end clear
+
+	private static void closeQuietly(PreparedStatement ps) {
+		try {
+			ps.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+}
@@ -0,0 +1,222 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RowHandler that prints query results as an aligned text table.  Output
+ * goes through one large buffer instead of a write per cell, and column
+ * widths are taken from the first rows only (the sample), so rows after the
+ * sample are printed as soon as they arrive and memory use stays bounded.
+ * Values wider than a column overflow it instead of being cut.
+ *
+ * A limit stops printing after that many rows, and a page size pauses after
+ * every page until the user presses Enter ('q' skips the rest).
+ *
+ */
+
+public class TableRenderer implements RowHandler {
+	//columns are never padded wider than this
+	static final int MAX_WIDTH = 48;
+	//how much output is collected before it is written
+	static final int BUFFER = 1 << 16;
+
+	private final PrintWriter _out;
+	private final int _sampleSize;
+	private final int _limit;
+	private final int _pageSize;
+	private final BufferedReader _pager;
+
+	private String[] _names;
+	private int[] _widths;
+	//rows held back until the column widths are known, null once printed
+	private List<String[]> _sample;
+	private int _rows = 0;
+	private int _pageRows = 0;
+	private boolean _truncated = false;
+	private boolean _quit = false;
+
+	/**
+	 * @param sampleSize the number of rows used to size the columns
+	 * @param limit the number of rows printed at most, 0 for no limit
+	 * @param pageSize the number of rows per page, 0 for no paging
+	 * @param pager where the answer to the page prompt is read from, only
+	 *        used when paging
+	 */
+	public TableRenderer(int sampleSize, int limit, int pageSize, BufferedReader pager) {
+		if (sampleSize <= 0) {
+			throw new IllegalArgumentException("sample size must be positive");
+		}
+		this._out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), BUFFER), false);
+		this._sampleSize = sampleSize;
+		this._limit = limit;
+		this._pageSize = pageSize;
+		this._pager = pager;
+		this._sample = new ArrayList<String[]>();
+	}
+
+	public void handleRow(ResultSet rs) throws SQLException {
+		if (this._quit) {
+			return;
+		}
+		if (this._names == null) {
+			ResultSetMetaData rsmd = rs.getMetaData();
+			this._names = new String[rsmd.getColumnCount()];
+			this._widths = new int[this._names.length];
+			for (int i = 0; i < this._names.length; ++i) {
+				this._names[i] = rsmd.getColumnLabel(i + 1);
+				this._widths[i] = Math.min(this._names[i].length(), MAX_WIDTH);
+			}
+		}
+		if (this._limit > 0 && this._rows >= this._limit) {
+			this._truncated = true;
+			return;
+		}
+
+		String[] row = new String[this._names.length];
+		for (int i = 0; i < row.length; ++i) {
+			row[i] = stripTrailing(rs.getString(i + 1));
+		}
+		addRow(row);
+	}//end handleRow
+
+	/**
+	 * Method to print a whole result that was already read, then finish.
+	 */
+	public void print(ResultTable table) {
+		this._names = new String[table.columnCount()];
+		this._widths = new int[this._names.length];
+		for (int i = 0; i < this._names.length; ++i) {
+			this._names[i] = table.columnName(i);
+			this._widths[i] = Math.min(this._names[i].length(), MAX_WIDTH);
+		}
+		for (int r = 0; r < table.size() && !this._quit; ++r) {
+			if (this._limit > 0 && this._rows >= this._limit) {
+				this._truncated = true;
+				break;
+			}
+			String[] row = new String[this._names.length];
+			for (int i = 0; i < row.length; ++i) {
+				row[i] = stripTrailing(table.getString(r, i));
+			}
+			addRow(row);
+		}
+		finish();
+	}//end print
+
+	private void addRow(String[] row) {
+		++this._rows;
+
+		if (this._sample != null) {
+			for (int i = 0; i < row.length; ++i) {
+				this._widths[i] = Math.max(this._widths[i], Math.min(row[i].length(), MAX_WIDTH));
+			}
+			this._sample.add(row);
+			if (this._sample.size() >= this._sampleSize) {
+				printSample();
+			}
+		} else {
+			printRow(row);
+		}
+	}
+
+	/**
+	 * Method to print whatever is still held back and flush the output.
+	 * Must be called once the query is done, also when it failed.
+	 */
+	public void finish() {
+		if (this._sample != null && this._names != null) {
+			printSample();
+		}
+		if (this._truncated) {
+			this._out.println("... only the first " + this._limit + " rows are shown");
+		}
+		this._out.println("(" + this._rows + (this._rows == 1 ? " row)" : " rows)"));
+		this._out.flush();
+	}
+
+	/**
+	 * @return the number of rows printed
+	 */
+	public int getRowCount() {
+		return this._rows;
+	}
+
+	private void printSample() {
+		List<String[]> sample = this._sample;
+		this._sample = null;
+		printHeader();
+		for (String[] row : sample) {
+			if (this._quit) {
+				break;
+			}
+			printRow(row);
+		}
+	}
+
+	private void printHeader() {
+		printLine(this._names);
+		StringBuilder rule = new StringBuilder();
+		for (int i = 0; i < this._widths.length; ++i) {
+			if (i > 0) {
+				rule.append("  ");
+			}
+			for (int j = 0; j < this._widths[i]; ++j) {
+				rule.append('-');
+			}
+		}
+		this._out.println(rule);
+	}
+
+	private void printRow(String[] row) {
+		printLine(row);
+		if (this._pageSize > 0 && ++this._pageRows >= this._pageSize) {
+			this._pageRows = 0;
+			this._out.print("-- more (Enter to continue, q to quit) --");
+			this._out.flush();
+			try {
+				String answer = this._pager.readLine();
+				this._quit = answer == null || answer.trim().equalsIgnoreCase("q");
+			} catch (IOException e) {
+				this._quit = true;
+			}
+			if (!this._quit) {
+				printHeader();
+			}
+		}
+	}
+
+	private void printLine(String[] cells) {
+		for (int i = 0; i < cells.length; ++i) {
+			if (i > 0) {
+				this._out.print("  ");
+			}
+			this._out.print(cells[i]);
+			// the last column is not padded
+			if (i + 1 < cells.length) {
+				for (int j = cells[i].length(); j < this._widths[i]; ++j) {
+					this._out.print(' ');
+				}
+			}
+		}
+		this._out.println();
+	}
+
+	//drops the blanks CHAR columns are padded with
+	private static String stripTrailing(String s) {
+		if (s == null) {
+			return "null";
+		}
+		int end = s.length();
+		while (end > 0 && s.charAt(end - 1) == ' ') {
+			--end;
+		}
+		return s.substring(0, end);
+	}
+}
@@ -0,0 +1,308 @@
+/**
+ * This class holds the input rules of the shop (names, phone numbers,
+ * addresses, VINs, ...) as data and checks values against them without
+ * allocating: a rule is a set of allowed character classes, a length range
+ * and optionally a fixed template or a range for its numeric value, and check() scans the
+ * CharSequence once, looking every ASCII character up in a precomputed class
+ * table.  The result is an error code, so batch and API callers can act on
+ * it; message() turns it into the text the menus print.
+ *
+ * The MechanicShop.validate* methods delegate here.
+ *
+ */
+
+public final class Validator {
+	//character classes
+	static final int LETTER = 1;
+	static final int DIGIT = 1 << 1;
+	static final int UPPER = 1 << 2;
+	static final int SPACE = 1 << 3;
+	static final int HYPHEN = 1 << 4;
+	static final int APOSTROPHE = 1 << 5;
+	static final int PERIOD = 1 << 6;
+	static final int AMPERSAND = 1 << 7;
+	static final int PAREN = 1 << 8;
+
+	//error codes returned by Rule.check()
+	public static final int OK = 0;
+	public static final int EMPTY = 1;
+	public static final int TOO_LONG = 2;
+	public static final int WRONG_LENGTH = 3;
+	public static final int BAD_CHAR = 4;
+	public static final int BAD_FORMAT = 5;
+	public static final int TOO_LARGE = 6;
+	public static final int MISSING_CLASS = 7;
+	public static final int TOO_SMALL = 8;
+	private static final int CODES = 9;
+
+	//the classes of every ASCII character, other characters are classified on the fly
+	private static final int[] ASCII = new int[128];
+	static {
+		for (char c = 'a'; c <= 'z'; ++c) ASCII[c] = LETTER;
+		for (char c = 'A'; c <= 'Z'; ++c) ASCII[c] = LETTER | UPPER;
+		for (char c = '0'; c <= '9'; ++c) ASCII[c] = DIGIT;
+		ASCII[' '] = SPACE;
+		ASCII['-'] = HYPHEN;
+		ASCII['\''] = APOSTROPHE;
+		ASCII['.'] = PERIOD;
+		ASCII['&'] = AMPERSAND;
+		ASCII['('] = PAREN;
+		ASCII[')'] = PAREN;
+	}
+
+	/**
+	 * One input rule.  Rules are built once, below, and are immutable after.
+	 */
+	public static final class Rule {
+		final String name;
+		private boolean _trim = false;
+		private int _minLength = 0;
+		private int _maxLength = Integer.MAX_VALUE;
+		private int _allowed = -1;
+		//each class that must occur at least once
+		private int _required = 0;
+		//'#' stands for a digit, anything else for itself
+		private String _template = null;
+		//the range of the value of a rule made of digits, when it has one
+		private boolean _ranged = false;
+		private long _minValue = 0;
+		private long _maxValue = 0;
+		private final String[] _messages = new String[CODES];
+
+		Rule(String name) {
+			this.name = name;
+		}
+
+		Rule trim() {
+			this._trim = true;
+			return this;
+		}
+
+		Rule length(int min, int max) {
+			this._minLength = min;
+			this._maxLength = max;
+			return this;
+		}
+
+		Rule allow(int classes) {
+			this._allowed = classes;
+			return this;
+		}
+
+		Rule require(int classes) {
+			this._required = classes;
+			return this;
+		}
+
+		Rule template(String template) {
+			this._template = template;
+			return length(template.length(), template.length());
+		}
+
+		Rule range(long min, long max) {
+			this._ranged = true;
+			this._minValue = min;
+			this._maxValue = max;
+			return this;
+		}
+
+		Rule message(int code, String message) {
+			this._messages[code] = message;
+			return this;
+		}
+
+		/**
+		 * Method to check a value against this rule.
+		 *
+		 * @param s the value, trimmed first if the rule says so
+		 * @return OK or the first error found
+		 */
+		public int check(CharSequence s) {
+			int start = 0;
+			int end = s.length();
+			if (this._trim) {
+				// the same blanks String.trim() removes
+				while (start < end && s.charAt(start) <= ' ') ++start;
+				while (end > start && s.charAt(end - 1) <= ' ') --end;
+			}
+			int length = end - start;
+			if (length == 0 && this._minLength > 0) {
+				return EMPTY;
+			}
+			if (length < this._minLength || length > this._maxLength) {
+				return this._minLength == this._maxLength ? WRONG_LENGTH : TOO_LONG;
+			}
+
+			int seen = 0;
+			long value = 0;
+			for (int i = start; i < end; ++i) {
+				char c = s.charAt(i);
+				int classes = classify(c);
+				if (this._template != null) {
+					char t = this._template.charAt(i - start);
+					if (t == '#' ? (classes & DIGIT) == 0 : c != t) {
+						return BAD_FORMAT;
+					}
+				} else if ((classes & this._allowed) == 0) {
+					return BAD_CHAR;
+				}
+				seen |= classes;
+				// stops growing once past the range, so it can not overflow
+				if (this._ranged && value <= this._maxValue) {
+					value = value * 10 + Character.digit(c, 10);
+				}
+			}
+			if ((seen & this._required) != this._required) {
+				return MISSING_CLASS;
+			}
+			if (this._ranged && value > this._maxValue) {
+				return TOO_LARGE;
+			}
+			if (this._ranged && value < this._minValue) {
+				return TOO_SMALL;
+			}
+			return OK;
+		}//end check
+
+		/**
+		 * @return the text explaining an error code of this rule
+		 */
+		public String message(int code) {
+			String m = this._messages[code];
+			return m != null ? m : this.name + " is invalid";
+		}
+	}
+
+	private static int classify(char c) {
+		if (c < 128) {
+			return ASCII[c];
+		}
+		int classes = 0;
+		if (Character.isLetter(c)) classes |= LETTER;
+		if (Character.isUpperCase(c)) classes |= UPPER;
+		if (Character.isDigit(c)) classes |= DIGIT;
+		return classes;
+	}
+
+	private static final String ALPHA = " * alphabetical characters (A-Z,a-z),\n";
+	private static final String NUMERIC = " * numerical characters (0-9),\n";
+
+	public static final Rule NAME = new Rule("name").trim().length(1, 32).allow(LETTER | HYPHEN | APOSTROPHE | SPACE)
+		.message(EMPTY, "name can not be empty")
+		.message(TOO_LONG, "name must be 32 characters or less")
+		.message(BAD_CHAR, "name must be composed of only\n" + ALPHA + " * hyphens (-),\n * and/or apostrophes(')");
+	public static final Rule PHONE = new Rule("phone").template("(###)###-####")
+		.message(EMPTY, "phone number must not empty")
+		.message(WRONG_LENGTH, "phone number must be of the form (###)###-####")
+		.message(BAD_FORMAT, "phone number must be of the form (###)###-####");
+	public static final Rule STREET = new Rule("street").trim().length(1, Integer.MAX_VALUE).allow(LETTER | DIGIT | PERIOD | HYPHEN | SPACE)
+		.message(EMPTY, "input line must not empty")
+		.message(BAD_CHAR, "street address must be composed of only\n" + ALPHA + NUMERIC + " * spaces ( ),\n * hyphens (-),\n * and/or periods (.),");
+	public static final Rule CITY = new Rule("city").trim().length(1, Integer.MAX_VALUE).allow(LETTER | DIGIT | PERIOD | HYPHEN | SPACE)
+		.message(EMPTY, "input line must not empty")
+		.message(BAD_CHAR, "City must be composed of only\n" + ALPHA + NUMERIC + " * spaces ( ),\n * hyphens (-),\n * and/or periods (.),");
+	public static final Rule STATE = new Rule("state").trim().length(2, 2).allow(UPPER)
+		.message(EMPTY, "input line must not empty")
+		.message(WRONG_LENGTH, "State code must be two capital letters (ex: CA, NY)")
+		.message(BAD_CHAR, "State code must be two capital letters (ex: CA, NY)");
+	public static final Rule ZIP = new Rule("zip").trim().length(5, 5).allow(DIGIT)
+		.message(EMPTY, "input line must not empty")
+		.message(WRONG_LENGTH, "Zip code must be 5 digits long")
+		.message(BAD_CHAR, "Zip code must be only composed of digits");
+	public static final Rule YEARS = new Rule("experience").length(1, Integer.MAX_VALUE).allow(DIGIT).range(0, 99)
+		.message(EMPTY, "years of experience must be a number from 0 to 99 inclusive")
+		.message(BAD_CHAR, "years of experience must be a number from 0 to 99 inclusive")
+		.message(TOO_LARGE, "years of experience must be a number from 0 to 99 inclusive");
+	public static final Rule VIN = new Rule("vin").trim().length(16, 16).allow(LETTER | DIGIT).require(LETTER | DIGIT)
+		.message(EMPTY, "VIN must be 16 characters long")
+		.message(WRONG_LENGTH, "VIN must be 16 characters long")
+		.message(BAD_CHAR, "VIN must be only composed of digits and letters")
+		.message(MISSING_CLASS, "VIN must contain both digits and letters");
+	public static final Rule MAKE = new Rule("make").trim().length(0, 32).allow(LETTER | DIGIT | AMPERSAND | HYPHEN | SPACE)
+		.message(TOO_LONG, "make must be 32 characters or less")
+		.message(BAD_CHAR, "make must be composed of only\n" + ALPHA + NUMERIC + " * spaces ( ),\n * hyphens (-),\n * and/or ampersands (&),");
+	public static final Rule MODEL = new Rule("model").trim().length(0, 32).allow(LETTER | DIGIT | HYPHEN | SPACE)
+		.message(TOO_LONG, "model must be 32 characters or less")
+		.message(BAD_CHAR, "model must be composed of only\n" + ALPHA + NUMERIC + " * spaces ( ),\n * and/ or hyphens (-),");
+	public static final Rule YEAR = new Rule("year").trim().length(4, 4).allow(DIGIT)
+		.message(EMPTY, "year must be 4 digits")
+		.message(WRONG_LENGTH, "year must be 4 digits")
+		.message(BAD_CHAR, "year must be composed of only 4 digits");
+	//the years of the cars the shop can work on, checked once the year is well formed
+	public static final Rule CAR_YEAR = new Rule("car year").trim().length(4, 4).allow(DIGIT).range(1970, 2019)
+		.message(EMPTY, "year must be 4 digits")
+		.message(WRONG_LENGTH, "year must be 4 digits")
+		.message(BAD_CHAR, "year must be composed of only 4 digits")
+		.message(TOO_SMALL, "Car is too old to add to Mechanic Shop Database")
+		.message(TOO_LARGE, "Mechanic shop does not have the tools to work on a car from the future");
+	public static final Rule ODOMETER = new Rule("odometer").trim().length(1, Integer.MAX_VALUE).allow(DIGIT).range(0, Integer.MAX_VALUE)
+		.message(EMPTY, "Odometer value must not be empty")
+		.message(BAD_CHAR, "Odometer value must be composed of numerical characters (0-9)")
+		.message(TOO_LARGE, "Odometer value is too large");
+	public static final Rule BILL = new Rule("bill").length(1, Integer.MAX_VALUE).allow(DIGIT)
+		.message(EMPTY, "total bill must not empty")
+		.message(BAD_CHAR, "bill must be composed of numbers only");
+	public static final Rule SERVICE_REQUEST = new Rule("service request number").length(1, Integer.MAX_VALUE).allow(DIGIT)
+		.message(EMPTY, "Service Request Number must not be empty")
+		.message(BAD_CHAR, "Service Request Number must be only composed of digits");
+	public static final Rule EMPLOYEE = new Rule("employee id").length(1, Integer.MAX_VALUE).allow(DIGIT)
+		.message(EMPTY, "Employee ID Number must not be empty")
+		.message(BAD_CHAR, "Employee ID Number must be only composed of digits");
+
+	private Validator() {
+	}
+
+	/**
+	 * Method to check a value and print the error, the way the menus report
+	 * invalid input.
+	 *
+	 * @return true when the value is valid
+	 */
+	public static boolean report(Rule rule, CharSequence value) {
+		int code = rule.check(value);
+		if (code != OK) {
+			System.out.println("ERROR: " + rule.message(code));
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Method to check a value and throw when it is invalid, for callers that
+	 * turn errors into responses.
+	 *
+	 * @throws IllegalArgumentException with the rule's message when invalid
+	 */
+	public static void require(Rule rule, CharSequence value) {
+		int code = rule.check(value);
+		if (code != OK) {
+			throw new IllegalArgumentException(rule.message(code));
+		}
+	}
+
+	/**
+	 * Method to split an address of the form the menus build it in,
+	 * "street, city ST 12345", so each part can be checked by its rule.
+	 *
+	 * @return street, city, state and zip, or null when the address does not
+	 *         have that form
+	 */
+	public static String[] addressParts(String address) {
+		int comma = address.lastIndexOf(',');
+		if (comma < 0) {
+			return null;
+		}
+		String rest = address.substring(comma + 1).trim();
+		int zip = rest.lastIndexOf(' ');
+		int state = zip < 0 ? -1 : rest.lastIndexOf(' ', zip - 1);
+		if (state < 0) {
+			return null;
+		}
+		return new String[] {
+			address.substring(0, comma).trim(),
+			rest.substring(0, state).trim(),
+			rest.substring(state + 1, zip),
+			rest.substring(zip + 1)
+		};
+	}//end addressParts
+}
@@ -0,0 +1,52 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helper for obtaining a thread-per-task executor.  On a JDK with virtual
+ * threads (21 and later) every task gets its own virtual thread, so blocking
+ * JDBC calls do not tie up platform threads.  On older JDKs it falls back to a
+ * cached pool of daemon platform threads so the code still runs unchanged.
+ *
+ */
+
+public final class VirtualThreads {
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @param name prefix used to name the fallback platform threads
+	 * @return an executor that starts a new (virtual if possible) thread per task
+	 */
+	public static ExecutorService newPerTaskExecutor(final String name) {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (Exception e) {
+			// no virtual threads on this JDK
+		}
+
+		final AtomicInteger count = new AtomicInteger();
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}//end newPerTaskExecutor
+
+	/**
+	 * @return true when this JDK supports virtual threads
+	 */
+	public static boolean available() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+}
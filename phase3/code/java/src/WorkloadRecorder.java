@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class records the shapes (parameterized SQL strings) of the
+ * statements the helpers issue, how often each one ran and the parameters
+ * of its latest run.  IndexAdvisor explains the recorded shapes to find the
+ * indexes the workload is missing.
+ *
+ * Install one with ConnectionPool.setRecorder(); MechanicShop.prepare()
+ * then records every statement it binds.
+ *
+ */
+
+public class WorkloadRecorder {
+	/**
+	 * One recorded statement shape.
+	 */
+	public static final class Shape {
+		final String sql;
+		final AtomicLong count = new AtomicLong();
+		//the parameters of the latest run, replayed by EXPLAIN
+		volatile Object[] sample;
+
+		Shape(String sql) {
+			this.sql = sql;
+		}
+
+		public String getSql() {
+			return this.sql;
+		}
+
+		public long getCount() {
+			return this.count.get();
+		}
+	}
+
+	private final ConcurrentHashMap<String, Shape> _shapes = new ConcurrentHashMap<String, Shape>();
+
+	/**
+	 * Method to count one run of a statement.
+	 *
+	 * @param sql the parameterized SQL string
+	 * @param params the values bound to it
+	 */
+	public void record(String sql, Object[] params) {
+		Shape shape = this._shapes.get(sql);
+		if (shape == null) {
+			Shape added = new Shape(sql);
+			shape = this._shapes.putIfAbsent(sql, added);
+			if (shape == null) {
+				shape = added;
+			}
+		}
+		shape.count.incrementAndGet();
+		shape.sample = params;
+	}//end record
+
+	/**
+	 * @return the recorded shapes, most frequently run first
+	 */
+	public List<Shape> shapes() {
+		List<Shape> shapes = new ArrayList<Shape>(this._shapes.values());
+		Collections.sort(shapes, new Comparator<Shape>() {
+			public int compare(Shape a, Shape b) {
+				return Long.compare(b.getCount(), a.getCount());
+			}
+		});
+		return shapes;
+	}
+}
@@ -0,0 +1,165 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class queues related write statements (INSERT, UPDATE, DELETE) and
+ * sends them to the database together.  flush() runs everything queued so far
+ * inside one transaction; consecutive statements with the same SQL are sent
+ * as one JDBC batch, which the driver collapses into a single multi-row
+ * INSERT because the pool connects with reWriteBatchedInserts.
+ *
+ * Once committed, the statements invalidate the cached reports reading the
+ * tables they wrote to.  Each batched group and the commit are reported to
+ * the slow statement log like the statements of the MechanicShop helpers.
+ *
+ * Obtain one from MechanicShop.newBatch().  A batch is not thread safe.
+ *
+ */
+
+public class WriteBatch {
+	private final ConnectionPool _pool;
+	private final ReportCache _reports;
+	private final Metrics _metrics;
+	private final SlowStatementLog _slowLog;
+	private final List<String> _sql = new ArrayList<String>();
+	private final List<Object[]> _params = new ArrayList<Object[]>();
+	private final List<Runnable> _afterCommit = new ArrayList<Runnable>();
+
+	WriteBatch(ConnectionPool pool, ReportCache reports, Metrics metrics, SlowStatementLog slowLog) {
+		this._pool = pool;
+		this._reports = reports;
+		this._metrics = metrics;
+		this._slowLog = slowLog;
+	}
+
+	/**
+	 * Method to queue a write statement.  Nothing is sent until flush().
+	 *
+	 * @param sql the SQL string, with a ? placeholder for each parameter
+	 * @param params the values bound to the placeholders, in order
+	 * @return this batch, so calls can be chained
+	 */
+	public WriteBatch add(String sql, Object... params) {
+		this._sql.add(sql);
+		this._params.add(params);
+		return this;
+	}
+
+	/**
+	 * Method to run an action once the statements queued so far have been
+	 * committed, e.g. to update in-memory state that mirrors them.  The
+	 * action is dropped with the queue if the batch is cleared.
+	 *
+	 * @param action what to run after the commit, must not throw
+	 * @return this batch, so calls can be chained
+	 */
+	public WriteBatch afterCommit(Runnable action) {
+		this._afterCommit.add(action);
+		return this;
+	}
+
+	/**
+	 * @return the number of statements waiting to be flushed
+	 */
+	public int size() {
+		return this._sql.size();
+	}
+
+	/**
+	 * Method to send every queued statement in one transaction.  If any
+	 * statement fails the whole transaction is rolled back and the queue is
+	 * left untouched so the caller can inspect or discard it.
+	 *
+	 * @return the number of statements executed
+	 * @throws java.sql.SQLException when a statement failed
+	 */
+	public int flush() throws SQLException {
+		int count = this._sql.size();
+		if (count == 0) {
+			return 0;
+		}
+
+		PooledConnection pc = this._pool.borrow();
+		Metrics.Scope scope = this._metrics.start("jdbc.flush");
+		Connection conn = pc.getConnection();
+		try {
+			conn.setAutoCommit(false);
+
+			int start = 0;
+			while (start < count) {
+				// group the run of statements sharing this SQL into one batch
+				String sql = this._sql.get(start);
+				int end = start;
+				PreparedStatement stmt = null;
+				while (end < count && this._sql.get(end).equals(sql)) {
+					stmt = MechanicShop.prepare(pc, sql, this._params.get(end));
+					stmt.addBatch();
+					++end;
+				}
+				try {
+					long started = System.nanoTime();
+					int[] counts = stmt.executeBatch();
+					Metrics.roundTrips(1);
+					// the binds of the first statement of the group stand for all of them
+					this._slowLog.record(sql, this._params.get(start), System.nanoTime() - started, rowCount(counts));
+				} finally {
+					stmt.clearBatch();
+				}
+				start = end;
+			}
+
+			long started = System.nanoTime();
+			conn.commit();
+			Metrics.roundTrips(1);
+			this._slowLog.record("COMMIT", new Object[0], System.nanoTime() - started, count);
+			conn.setAutoCommit(true);
+			String last = null;
+			for (String sql : this._sql) {
+				if (!sql.equals(last)) {
+					this._reports.invalidateFor(sql);
+					last = sql;
+				}
+			}
+			List<Runnable> actions = new ArrayList<Runnable>(this._afterCommit);
+			clear();
+			for (Runnable action : actions) {
+				action.run();
+			}
+			return count;
+		} catch (SQLException e) {
+			scope.failed();
+			pc.checkBroken(e);
+			try {
+				conn.rollback();
+			} catch (SQLException ignored) {
+				// the pool rolls back again on release
+			}
+			// surface the real cause instead of the generic batch failure
+			throw e.getNextException() != null ? e.getNextException() : e;
+		} finally {
+			this._pool.release(pc);
+			scope.close();
+		}
+	}//end flush
+
+	//rewritten multi-row INSERTs report SUCCESS_NO_INFO, counted as one row each
+	private static long rowCount(int[] counts) {
+		long rows = 0;
+		for (int c : counts) {
+			rows += c >= 0 ? c : 1;
+		}
+		return rows;
+	}
+
+	/**
+	 * Method to drop every queued statement without sending it.
+	 */
+	public void clear() {
+		this._sql.clear();
+		this._params.clear();
+		this._afterCommit.clear();
+	}
+}
@@ -4,6 +4,7 @@ DROP TABLE IF EXISTS Car CASCADE;--OK
 DROP TABLE IF EXISTS Owns CASCADE;--OK
 DROP TABLE IF EXISTS Service_Request CASCADE;--OK
 DROP TABLE IF EXISTS Closed_Request CASCADE;--OK
+DROP TABLE IF EXISTS Customer_Bill_Total CASCADE;
 
 
 -------------
@@ -87,6 +88,22 @@ CREATE TABLE Closed_Request
 	FOREIGN KEY (mid) REFERENCES Mechanic(id)
 );
 
+---------------
+---SUMMARIES---
+---------------
+-- total billed per customer, kept current by the closed_request_bill_total
+-- trigger below on every write to Closed_Request
+CREATE TABLE Customer_Bill_Total
+(
+	customer_id INTEGER NOT NULL,
+	total BIGINT NOT NULL,
+	PRIMARY KEY (customer_id),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id)
+);
+
+CREATE INDEX customer_bill_total_total
+ON Customer_Bill_Total(total DESC);
+
 ----------------------------
 -- INSERT DATA STATEMENTS --
 ----------------------------
@@ -161,4 +178,27 @@ ON Car(vin);
 CREATE INDEX srID
 ON Service_Request(rid);
 
-
+INSERT INTO Customer_Bill_Total (customer_id, total)
+SELECT SR.customer_id, SUM(CR.bill)
+FROM Closed_Request AS CR, Service_Request AS SR
+WHERE CR.rid = SR.rid
+GROUP BY SR.customer_id;
+
+-- created after the initial fill so the loaded bills are not counted twice;
+-- same definition as ShopOperations.BILL_TOTAL_FUNCTION
+CREATE OR REPLACE FUNCTION closed_request_bill_total() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP <> 'INSERT' THEN
+		UPDATE Customer_Bill_Total SET total = total - OLD.bill
+		WHERE customer_id = (SELECT customer_id FROM Service_Request WHERE rid = OLD.rid);
+	END IF;
+	IF TG_OP <> 'DELETE' THEN
+		INSERT INTO Customer_Bill_Total(customer_id, total)
+		SELECT customer_id, NEW.bill FROM Service_Request WHERE rid = NEW.rid
+		ON CONFLICT (customer_id) DO UPDATE SET total = Customer_Bill_Total.total + EXCLUDED.total;
+	END IF;
+	RETURN NULL;
+END $$ LANGUAGE plpgsql;
+
+CREATE TRIGGER closed_request_bill_total AFTER INSERT OR UPDATE OR DELETE ON Closed_Request
+FOR EACH ROW EXECUTE PROCEDURE closed_request_bill_total();